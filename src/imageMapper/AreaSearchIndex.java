@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Inverted index over title, alt, data-content and onclick. Every query word matches as a prefix, all words must match.
+public class AreaSearchIndex<A extends MapArea> {
+    private final TreeMap<String, Set<A>> postings = new TreeMap<>();
+    private final Map<A, Set<String>> tokensByArea = new IdentityHashMap<>();
+
+    public void rebuild(List<A> areas) {
+        postings.clear();
+        tokensByArea.clear();
+        for (A area : areas) {
+            update(area);
+        }
+    }
+
+    // Adds the area or refreshes it after an edit, only the words that changed are touched.
+    public void update(A area) {
+        Set<String> tokens = new HashSet<>();
+        tokenize(area.getTitle(), tokens);
+        tokenize(area.getAlt(), tokens);
+        tokenize(area.getDataContent(), tokens);
+        tokenize(area.getOnClick(), tokens);
+        Set<String> previous = tokensByArea.put(area, tokens);
+        if (previous != null) {
+            for (String token : previous) {
+                if (!tokens.contains(token)) {
+                    removePosting(token, area);
+                }
+            }
+        }
+        for (String token : tokens) {
+            if (previous == null || !previous.contains(token)) {
+                postings.computeIfAbsent(token, t -> Collections.newSetFromMap(new IdentityHashMap<>())).add(area);
+            }
+        }
+    }
+
+    public void remove(A area) {
+        Set<String> previous = tokensByArea.remove(area);
+        if (previous != null) {
+            for (String token : previous) {
+                removePosting(token, area);
+            }
+        }
+    }
+
+    public Set<A> search(String query) {
+        Set<String> words = new HashSet<>();
+        tokenize(query, words);
+        Set<A> result = null;
+        for (String word : words) {
+            Set<A> matches = Collections.newSetFromMap(new IdentityHashMap<>());
+            SortedMap<String, Set<A>> prefixed = postings.subMap(word, word + Character.MAX_VALUE);
+            for (Set<A> areas : prefixed.values()) {
+                if (result == null) {
+                    matches.addAll(areas);
+                } else {
+                    for (A area : areas) {
+                        if (result.contains(area)) {
+                            matches.add(area);
+                        }
+                    }
+                }
+            }
+            result = matches;
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result != null ? result : Collections.emptySet();
+    }
+
+    private void removePosting(String token, A area) {
+        Set<A> areas = postings.get(token);
+        if (areas != null) {
+            areas.remove(area);
+            if (areas.isEmpty()) {
+                postings.remove(token);
+            }
+        }
+    }
+
+    // Lower case words of letters and digits, markup inside <...> is skipped. A '<' only starts a tag when a letter, '/'
+    // or '!' follows, like in HTML, so "a < b" keeps both words. Entities are decoded, "&quot;" doesn't become a word,
+    // one that can't be decoded is kept as text, like a browser shows it.
+    // Dots between digits or letters stay part of the word, so "4.12" or "map.show" are found as a whole.
+    static void tokenize(String text, Set<String> tokens) {
+        if (text == null) {
+            return;
+        }
+        StringBuilder word = new StringBuilder();
+        boolean inTag = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (inTag) {
+                inTag = c != '>';
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+                continue;
+            }
+            if (c == '.' && word.length() > 0 && i + 1 < text.length() && Character.isLetterOrDigit(text.charAt(i + 1))) {
+                word.append(c);
+                continue;
+            }
+            if (c == '&') {
+                int end = entityEnd(text, i);
+                if (end > 0) {
+                    String entity = text.substring(i, end + 1);
+                    String decoded = HtmlReader.unescapeXml(entity);
+                    i = end;
+                    if (decoded.equals(entity)) {
+                        word.append(entity.toLowerCase());
+                        continue;
+                    }
+                    if (decoded.length() == 1 && Character.isLetterOrDigit(decoded.charAt(0))) {
+                        word.append(Character.toLowerCase(decoded.charAt(0)));
+                        continue;
+                    }
+                }
+            }
+            if (word.length() > 0) {
+                tokens.add(word.toString());
+                word.setLength(0);
+            }
+            inTag = c == '<' && i + 1 < text.length() && isTagStart(text.charAt(i + 1));
+        }
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+        }
+    }
+
+    private static boolean isTagStart(char c) {
+        return c == '/' || c == '!' || (c < 128 && Character.isLetter(c));
+    }
+
+    // Index of the ';' if an entity like "&amp;" or "&#228;" starts at i, else -1.
+    private static int entityEnd(String text, int i) {
+        int end = Math.min(text.length(), i + 12);
+        for (int j = i + 1; j < end; j++) {
+            char c = text.charAt(j);
+            if (c == ';') {
+                return j > i + 1 ? j : -1;
+            }
+            if (!Character.isLetterOrDigit(c) && !(c == '#' && j == i + 1)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Shared instances of area attribute values. Maps repeat the same title, content or onclick handler for many areas, so
+// every value is kept once and its escaped form is computed once. Values no area uses anymore are dropped by the GC.
+// The parallel readers and the normalizer intern from many threads, so there is no lock, only a concurrent map of weak
+// references.
+public class AttributePool {
+    // marks values which escaping leaves as they are, the entry must not reference its own key
+    private static final String UNCHANGED = new String("");
+
+    private static final ConcurrentMap<Object, Entry> entries = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<String> cleared = new ReferenceQueue<>();
+
+    // Key and value of the map, equal to the entries and probes of an equal string while the string is alive.
+    private static class Entry extends WeakReference<String> {
+        final int hash;
+        volatile String escaped;
+
+        Entry(String value) {
+            super(value, cleared);
+            this.hash = value.hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            String value = get();
+            return value != null && o instanceof Entry && value.equals(((Entry) o).get());
+        }
+    }
+
+    // Looks up the entry of a string without creating one.
+    private static class Probe {
+        final String value;
+
+        Probe(String value) {
+            this.value = value;
+        }
+
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Entry && value.equals(((Entry) o).get());
+        }
+    }
+
+    public static String intern(String s) {
+        if (s == null || s.isEmpty()) {
+            return s;
+        }
+        expunge();
+        Entry entry = entries.get(new Probe(s));
+        String shared = entry != null ? entry.get() : null;
+        if (shared != null) {
+            return shared;
+        }
+        Entry created = new Entry(s);
+        while (true) {
+            Entry existing = entries.putIfAbsent(created, created);
+            if (existing == null) {
+                return s;
+            }
+            shared = existing.get();
+            if (shared != null) {
+                return shared;
+            }
+            // cleared in the meantime
+            entries.remove(existing, existing);
+        }
+    }
+
+    // Escaped form of a value, cached for pooled values.
+    public static String escaped(String s) {
+        Entry entry = entries.get(new Probe(s));
+        if (entry != null) {
+            String escaped = entry.escaped;
+            if (escaped != null) {
+                return escaped == UNCHANGED ? s : escaped;
+            }
+        }
+        String escaped = HtmlWriter.escapeHtml(s);
+        if (entry != null) {
+            entry.escaped = escaped.equals(s) ? UNCHANGED : escaped;
+        }
+        return escaped;
+    }
+
+    public static int size() {
+        expunge();
+        return entries.size();
+    }
+
+    private static void expunge() {
+        Reference<? extends String> reference;
+        while ((reference = cleared.poll()) != null) {
+            entries.remove(reference, reference);
+        }
+    }
+}
@@ -0,0 +1,588 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Packed form of an image map: the rectangles as one int array and all attribute strings in a deduplicated table.
+// The JSON and binary variants store the same data, coordinates delta encoded as dx,dy,width,height per area, where
+// dx,dy are relative to the top left corner of the previous area.
+public class CompactMap {
+    public static final int VERSION = 1;
+    private static final int MAGIC = 0x494D4150; // "IMAP"
+    public static final int TITLE = 0;
+    public static final int ALT = 1;
+    public static final int DATA_CONTENT = 2;
+    public static final int ONCLICK = 3;
+
+    private final String imgSrc;
+    // x1,y1,x2,y2 for every area
+    private final int[] coords;
+    private final String[] strings;
+    // title, alt, data-content and onclick index into strings for every area
+    private final int[] refs;
+
+    private CompactMap(String imgSrc, int[] coords, String[] strings, int[] refs) {
+        if (coords.length % 4 != 0 || coords.length != refs.length) {
+            throw new IllegalArgumentException("Coordinates and attributes don't match.");
+        }
+        for (int ref : refs) {
+            if (ref < 0 || ref >= strings.length) {
+                throw new IllegalArgumentException("Invalid string reference " + ref + ".");
+            }
+        }
+        this.imgSrc = imgSrc;
+        this.coords = coords;
+        this.strings = strings;
+        this.refs = refs;
+    }
+
+    public static CompactMap of(String imgSrc, List<? extends MapArea> areas) {
+        Builder builder = new Builder(imgSrc, areas.size());
+        for (MapArea area : areas) {
+            builder.add((int) Math.round(area.getX()), (int) Math.round(area.getY()),
+                    (int) Math.round(area.getX() + area.getWidth()), (int) Math.round(area.getY() + area.getHeight()),
+                    area.getTitle(), area.getAlt(), area.getDataContent(), area.getOnClick());
+        }
+        return builder.build();
+    }
+
+    public static class Builder {
+        private final String imgSrc;
+        private int[] coords;
+        private int[] refs;
+        private int size = 0;
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> stringIndex = new HashMap<>();
+
+        public Builder(String imgSrc, int expectedSize) {
+            this.imgSrc = imgSrc;
+            this.coords = new int[Math.max(expectedSize, 1) * 4];
+            this.refs = new int[Math.max(expectedSize, 1) * 4];
+        }
+
+        public Builder add(int x1, int y1, int x2, int y2, String title, String alt, String dataContent, String onClick) {
+            if (size * 4 == coords.length) {
+                coords = Arrays.copyOf(coords, coords.length * 2);
+                refs = Arrays.copyOf(refs, refs.length * 2);
+            }
+            int i = size * 4;
+            coords[i] = x1;
+            coords[i + 1] = y1;
+            coords[i + 2] = x2;
+            coords[i + 3] = y2;
+            refs[i + TITLE] = indexOf(title);
+            refs[i + ALT] = indexOf(alt);
+            refs[i + DATA_CONTENT] = indexOf(dataContent);
+            refs[i + ONCLICK] = indexOf(onClick);
+            size++;
+            return this;
+        }
+
+        private int indexOf(String s) {
+            String value = s != null ? s : "";
+            Integer index = stringIndex.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.add(value);
+                stringIndex.put(value, index);
+            }
+            return index;
+        }
+
+        public CompactMap build() {
+            return new CompactMap(imgSrc, Arrays.copyOf(coords, size * 4),
+                    strings.toArray(new String[0]), Arrays.copyOf(refs, size * 4));
+        }
+    }
+
+    public String getImgSrc() {
+        return imgSrc;
+    }
+
+    public int size() {
+        return coords.length / 4;
+    }
+
+    public int getCoord(int area, int index) {
+        return coords[area * 4 + index];
+    }
+
+    public String getString(int area, int attribute) {
+        return strings[refs[area * 4 + attribute]];
+    }
+
+    public <A extends MapArea> List<A> toAreas(MapArea.Factory<A> factory) {
+        List<A> areas = new ArrayList<>(size());
+        for (int i = 0; i < coords.length; i += 4) {
+            areas.add(factory.create(coords[i], coords[i + 1], coords[i + 2] - coords[i], coords[i + 3] - coords[i + 1],
+                    strings[refs[i + TITLE]], strings[refs[i + ALT]], strings[refs[i + DATA_CONTENT]], strings[refs[i + ONCLICK]]));
+        }
+        return areas;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"v\":").append(VERSION);
+        if (imgSrc != null) {
+            sb.append(",\"src\":");
+            appendJsonString(sb, imgSrc);
+        }
+        sb.append(",\"strings\":[");
+        for (int i = 0; i < strings.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendJsonString(sb, strings[i]);
+        }
+        sb.append("],\"coords\":[");
+        int prevX = 0;
+        int prevY = 0;
+        for (int i = 0; i < coords.length; i += 4) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(coords[i] - prevX).append(',').append(coords[i + 1] - prevY).append(',')
+                    .append(coords[i + 2] - coords[i]).append(',').append(coords[i + 3] - coords[i + 1]);
+            prevX = coords[i];
+            prevY = coords[i + 1];
+        }
+        sb.append("],\"attrs\":[");
+        for (int i = 0; i < refs.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(refs[i]);
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    public byte[] toBinary() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(coords.length * 2 + 64);
+        writeInt(out, MAGIC);
+        out.write(VERSION);
+        writeVarInt(out, strings.length);
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        byte[] src = imgSrc != null ? imgSrc.getBytes(StandardCharsets.UTF_8) : null;
+        // 0 means no image source, otherwise length + 1
+        writeVarInt(out, src != null ? src.length + 1 : 0);
+        if (src != null) {
+            out.write(src, 0, src.length);
+        }
+        writeVarInt(out, size());
+        int prevX = 0;
+        int prevY = 0;
+        for (int i = 0; i < coords.length; i += 4) {
+            writeVarInt(out, zigZag(coords[i] - prevX));
+            writeVarInt(out, zigZag(coords[i + 1] - prevY));
+            writeVarInt(out, zigZag(coords[i + 2] - coords[i]));
+            writeVarInt(out, zigZag(coords[i + 3] - coords[i + 1]));
+            for (int a = 0; a < 4; a++) {
+                writeVarInt(out, refs[i + a]);
+            }
+            prevX = coords[i];
+            prevY = coords[i + 1];
+        }
+        return out.toByteArray();
+    }
+
+    public static CompactMap fromBinary(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a compact image map.");
+            }
+            int version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported compact image map version " + version + ".");
+            }
+            // every string takes at least its length byte, every area at least 8 bytes
+            String[] strings = new String[readCount(buffer, 1)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readUtf8(buffer, readVarInt(buffer));
+            }
+            int srcLength = readVarInt(buffer);
+            String imgSrc = srcLength > 0 ? readUtf8(buffer, srcLength - 1) : null;
+            int size = readCount(buffer, 8);
+            int[] coords = new int[size * 4];
+            int[] refs = new int[size * 4];
+            int prevX = 0;
+            int prevY = 0;
+            for (int i = 0; i < coords.length; i += 4) {
+                coords[i] = Math.addExact(prevX, unZigZag(readVarInt(buffer)));
+                coords[i + 1] = Math.addExact(prevY, unZigZag(readVarInt(buffer)));
+                coords[i + 2] = Math.addExact(coords[i], unZigZag(readVarInt(buffer)));
+                coords[i + 3] = Math.addExact(coords[i + 1], unZigZag(readVarInt(buffer)));
+                for (int a = 0; a < 4; a++) {
+                    refs[i + a] = readVarInt(buffer);
+                }
+                prevX = coords[i];
+                prevY = coords[i + 1];
+            }
+            return new CompactMap(imgSrc, coords, strings, refs);
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Compact image map is truncated.");
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException("Coordinates out of range.");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static CompactMap fromJson(String json) {
+        Object root = new JsonParser(json).parse();
+        if (!(root instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object.");
+        }
+        Map<String, Object> map = (Map<String, Object>) root;
+        Object version = map.get("v");
+        if (!(version instanceof Long) || (Long) version != VERSION) {
+            throw new IllegalArgumentException("Unsupported compact image map version " + version + ".");
+        }
+        List<Object> stringList = list(map, "strings");
+        String[] strings = new String[stringList.size()];
+        for (int i = 0; i < strings.length; i++) {
+            if (!(stringList.get(i) instanceof String)) {
+                throw new IllegalArgumentException("Expected a string in \"strings\".");
+            }
+            strings[i] = (String) stringList.get(i);
+        }
+        int[] coords = ints(list(map, "coords"));
+        int[] refs = ints(list(map, "attrs"));
+        int prevX = 0;
+        int prevY = 0;
+        try {
+            for (int i = 0; i + 3 < coords.length; i += 4) {
+                coords[i] = Math.addExact(coords[i], prevX);
+                coords[i + 1] = Math.addExact(coords[i + 1], prevY);
+                coords[i + 2] = Math.addExact(coords[i + 2], coords[i]);
+                coords[i + 3] = Math.addExact(coords[i + 3], coords[i + 1]);
+                prevX = coords[i];
+                prevY = coords[i + 1];
+            }
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException("Coordinates out of range.");
+        }
+        Object src = map.get("src");
+        return new CompactMap(src instanceof String ? (String) src : null, coords, strings, refs);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Expected an array \"" + key + "\".");
+        }
+        return (List<Object>) value;
+    }
+
+    private static int[] ints(List<Object> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            Object value = list.get(i);
+            if (!(value instanceof Long) || (Long) value < Integer.MIN_VALUE || (Long) value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Expected an integer but found " + value + ".");
+            }
+            result[i] = ((Long) value).intValue();
+        }
+        return result;
+    }
+
+    static void appendJsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '<':
+                    // keeps the JSON safe to embed in a script tag
+                    sb.append("\\u003c");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        sb.append('"');
+    }
+
+    static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length integer.");
+    }
+
+    // A count of elements that take at least minBytes each, so a corrupt count fails here instead of allocating.
+    static int readCount(ByteBuffer buffer, int minBytes) {
+        int count = readVarInt(buffer);
+        if (count < 0 || count > buffer.remaining() / minBytes) {
+            throw new IllegalArgumentException("Invalid count " + count + ", the data is corrupt or truncated.");
+        }
+        return count;
+    }
+
+    static String readUtf8(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Compact image map is truncated.");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Just enough JSON for the compact format: objects, arrays, strings, integers, booleans and null.
+    private static class JsonParser {
+        private final String s;
+        private int pos = 0;
+
+        JsonParser(String s) {
+            this.s = s;
+        }
+
+        Object parse() {
+            Object value = parseValue();
+            skipWhitespace();
+            if (pos != s.length()) {
+                throw error("Unexpected trailing characters");
+            }
+            return value;
+        }
+
+        private Object parseValue() {
+            skipWhitespace();
+            if (pos >= s.length()) {
+                throw error("Unexpected end of input");
+            }
+            char c = s.charAt(pos);
+            switch (c) {
+                case '{':
+                    return parseObject();
+                case '[':
+                    return parseArray();
+                case '"':
+                    return parseString();
+                case 't':
+                    expect("true");
+                    return Boolean.TRUE;
+                case 'f':
+                    expect("false");
+                    return Boolean.FALSE;
+                case 'n':
+                    expect("null");
+                    return null;
+                default:
+                    return parseNumber();
+            }
+        }
+
+        private Map<String, Object> parseObject() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return map;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a key");
+                }
+                String key = parseString();
+                skipWhitespace();
+                expect(":");
+                map.put(key, parseValue());
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    return map;
+                } else if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        private List<Object> parseArray() {
+            List<Object> list = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return list;
+            }
+            while (true) {
+                list.add(parseValue());
+                skipWhitespace();
+                char c = next();
+                if (c == ']') {
+                    return list;
+                } else if (c != ',') {
+                    throw error("Expected ',' or ']'");
+                }
+            }
+        }
+
+        private String parseString() {
+            StringBuilder sb = new StringBuilder();
+            pos++;
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return sb.toString();
+                } else if (c == '\\') {
+                    char e = next();
+                    switch (e) {
+                        case 'n':
+                            sb.append('\n');
+                            break;
+                        case 'r':
+                            sb.append('\r');
+                            break;
+                        case 't':
+                            sb.append('\t');
+                            break;
+                        case 'b':
+                            sb.append('\b');
+                            break;
+                        case 'f':
+                            sb.append('\f');
+                            break;
+                        case 'u':
+                            if (pos + 4 > s.length()) {
+                                throw error("Invalid unicode escape");
+                            }
+                            try {
+                                sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                            } catch (NumberFormatException ex) {
+                                throw error("Invalid unicode escape");
+                            }
+                            pos += 4;
+                            break;
+                        default:
+                            sb.append(e);
+                            break;
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+
+        private Long parseNumber() {
+            int start = pos;
+            if (peek() == '-') {
+                pos++;
+            }
+            while (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+                pos++;
+            }
+            try {
+                return Long.parseLong(s.substring(start, pos));
+            } catch (NumberFormatException ex) {
+                throw error("Expected an integer");
+            }
+        }
+
+        private void expect(String token) {
+            if (!s.startsWith(token, pos)) {
+                throw error("Expected '" + token + "'");
+            }
+            pos += token.length();
+        }
+
+        private char peek() {
+            return pos < s.length() ? s.charAt(pos) : 0;
+        }
+
+        private char next() {
+            if (pos >= s.length()) {
+                throw error("Unexpected end of input");
+            }
+            return s.charAt(pos++);
+        }
+
+        private void skipWhitespace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + ".");
+        }
+    }
+}
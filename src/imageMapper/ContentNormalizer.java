@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Cleans up data-content in a single pass over the text. Whitespace is collected into runs and every run is either
+// dropped or written out once, depending on the enabled steps. The first two steps are the ones of the "Remove
+// whitespaces" and "Remove line breaks" buttons and keep their exact results.
+public class ContentNormalizer {
+    public static final ContentNormalizer REMOVE_WHITESPACES = new ContentNormalizer(true, false, false, false);
+    public static final ContentNormalizer REMOVE_LINE_BREAKS = new ContentNormalizer(false, true, false, false);
+    // every run of whitespace becomes one space, none is left at the ends or next to a block-level tag
+    public static final ContentNormalizer ALL = new ContentNormalizer(true, true, true, true);
+
+    // a browser doesn't render whitespace next to these, so it can go
+    private static final Set<String> BLOCK_TAGS = new HashSet<>(Arrays.asList("address", "article", "aside",
+            "blockquote", "br", "dd", "div", "dl", "dt", "fieldset", "figcaption", "figure", "footer", "form", "h1",
+            "h2", "h3", "h4", "h5", "h6", "header", "hr", "li", "main", "nav", "ol", "p", "section", "table", "tbody",
+            "td", "tfoot", "th", "thead", "tr", "ul"));
+
+    // runs of spaces become one space, and only if there was such a run the text is trimmed, tabs stay as they are
+    private final boolean collapseSpaces;
+    // a line break after a space is removed, any other becomes a space, a carriage return stays
+    private final boolean stripLineBreaks;
+    private final boolean trim;
+    // any run of spaces, tabs and line breaks becomes one space, the two steps above don't apply then
+    private final boolean collapseWhitespace;
+
+    public ContentNormalizer(boolean collapseSpaces, boolean stripLineBreaks, boolean trim, boolean collapseWhitespace) {
+        this.collapseSpaces = collapseSpaces;
+        this.stripLineBreaks = stripLineBreaks;
+        this.trim = trim;
+        this.collapseWhitespace = collapseWhitespace;
+    }
+
+    public String normalize(String s) {
+        if (s == null) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder(s.length());
+        boolean collapsed = false;
+        int runStart = -1;
+        int tagStart = -1;
+        boolean afterBlockTag = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+                continue;
+            }
+            if (runStart >= 0) {
+                if (!collapseWhitespace) {
+                    collapsed |= appendRun(out, s, runStart, i);
+                } else if (out.length() > 0 && !afterBlockTag && !(c == '<' && isBlockTag(s, i))) {
+                    out.append(' ');
+                }
+                runStart = -1;
+            }
+            if (c == '<') {
+                tagStart = i;
+            }
+            afterBlockTag = c == '>' && tagStart >= 0 && isBlockTag(s, tagStart);
+            if (c == '>') {
+                tagStart = -1;
+            }
+            out.append(c);
+        }
+        // with collapseWhitespace a run at the end is dropped like the one at the start
+        if (runStart >= 0 && !collapseWhitespace) {
+            collapsed |= appendRun(out, s, runStart, s.length());
+        }
+        return trim || collapsed ? out.toString().trim() : out.toString();
+    }
+
+    // Whether the tag starting at the '<' at start is an opening or closing block-level tag.
+    private static boolean isBlockTag(String s, int start) {
+        int nameStart = start + 1 < s.length() && s.charAt(start + 1) == '/' ? start + 2 : start + 1;
+        int nameEnd = nameStart;
+        while (nameEnd < s.length() && Character.isLetterOrDigit(s.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        return nameEnd > nameStart && BLOCK_TAGS.contains(s.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT));
+    }
+
+    // Returns whether spaces were collapsed.
+    private boolean appendRun(StringBuilder out, String s, int start, int end) {
+        boolean collapsed = false;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '\n' && stripLineBreaks) {
+                if (i > 0 && s.charAt(i - 1) == ' ') {
+                    continue;
+                }
+                c = ' ';
+            }
+            if (c == ' ' && collapseSpaces && i > start && out.length() > 0 && out.charAt(out.length() - 1) == ' ') {
+                collapsed = true;
+                continue;
+            }
+            out.append(c);
+        }
+        return collapsed;
+    }
+
+    public void apply(MapArea area) {
+        area.setDataContent(normalize(area.getDataContent()));
+    }
+
+    public void apply(List<? extends MapArea> areas) {
+        areas.parallelStream().forEach(this::apply);
+    }
+}
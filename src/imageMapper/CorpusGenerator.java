@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Writes synthetic maps with a matching image for scale tests. The same seed and size always give the same files.
+public class CorpusGenerator {
+    public static final long DEFAULT_SEED = 4711;
+    public static final int[] DEFAULT_SIZES = {100, 1000, 10000, 100000};
+    // the image never gets larger than this on either side, big maps get smaller cells instead
+    private static final int MAX_IMAGE_SIZE = 8192;
+
+    private static final String[] WORDS = {"Hauptbahnhof", "Kreuzung", "Straße", "Brücke", "Ausfahrt", "Überführung",
+            "Gleis", "Parkplatz", "Café", "Rathaus", "Größe", "Zürich", "Malmö", "Kraków", "Ελλάδα", "Москва", "東京",
+            "地図", "서울", "القاهرة", "North", "South", "Gate", "Level", "4.12", "A7", "Exit", "Info", "€", "→", "🚉"};
+    private static final String[] TAGS = {"b", "i", "em", "strong", "span", "small"};
+    // contents that come back on many areas, like a legend or a disclaimer
+    private static final int SHARED_CONTENTS = 16;
+
+    private final Random random;
+    private final String[] shared = new String[SHARED_CONTENTS];
+
+    public CorpusGenerator(long seed) {
+        this.random = new Random(seed);
+        for (int i = 0; i < SHARED_CONTENTS; i++) {
+            shared[i] = content(40 + random.nextInt(400));
+        }
+    }
+
+    // Writes map-<areas>.html and map-<areas>.png into the directory, returns the html file.
+    public static Path generate(Path directory, int areas, long seed) throws IOException {
+        Files.createDirectories(directory);
+        String name = "map-" + areas;
+        CorpusGenerator generator = new CorpusGenerator(seed ^ areas);
+        int columns = Math.max(1, (int) Math.ceil(Math.sqrt(areas)));
+        int cell = Math.max(8, Math.min(64, MAX_IMAGE_SIZE / columns));
+        int rows = (areas + columns - 1) / columns;
+        int width = columns * cell;
+        int height = rows * cell;
+        Path htmlPath = directory.resolve(name + ".html");
+        try (Writer writer = Files.newBufferedWriter(htmlPath, StandardCharsets.UTF_8)) {
+            generator.html(writer, name + ".png", areas, columns, cell, width, height);
+        }
+        writeImage(directory.resolve(name + ".png"), width, height, cell);
+        return htmlPath;
+    }
+
+    // The million area map doesn't fit into one string, so the areas are written out in chunks.
+    private void html(Writer writer, String src, int areas, int columns, int cell, int width, int height) throws IOException {
+        StringBuilder sb = new StringBuilder(1 << 20);
+        sb.append("<img src=\"").append(src).append("\" usemap=\"#map\" width=\"").append(width)
+                .append("\" height=\"").append(height).append("\" />\n<map name=\"map\">\n");
+        MapTemplate template = TemplateEmitter.BOOTSTRAP.getAreaTemplate();
+        MapTemplate.Values values = new MapTemplate.Values();
+        for (int i = 0; i < areas; i++) {
+            int x = (i % columns) * cell;
+            int y = (i / columns) * cell;
+            int w = cell;
+            int h = cell;
+            int shape = random.nextInt(100);
+            if (shape < 60) {
+                // inside its own cell, no overlap
+                int inset = random.nextInt(Math.max(1, cell / 4));
+                x += inset;
+                y += inset;
+                w = Math.max(2, cell - inset - random.nextInt(Math.max(1, cell / 4)));
+                h = Math.max(2, cell - inset - random.nextInt(Math.max(1, cell / 4)));
+            } else if (shape < 85) {
+                // reaches into the neighbouring cells
+                w = cell + random.nextInt(cell * 2);
+                h = cell + random.nextInt(cell * 2);
+            } else if (shape < 95) {
+                // small area on top of a larger one
+                x += random.nextInt(cell / 2);
+                y += random.nextInt(cell / 2);
+                w = Math.max(2, cell / 4);
+                h = Math.max(2, cell / 4);
+            } else {
+                // large area covering a whole block of cells
+                w = cell * (2 + random.nextInt(6));
+                h = cell * (2 + random.nextInt(6));
+            }
+            values.x = x;
+            values.y = y;
+            values.x2 = Math.min(width, x + w);
+            values.y2 = Math.min(height, y + h);
+            values.index = i;
+            values.title = words(1 + random.nextInt(4));
+            values.alt = random.nextInt(10) == 0 ? "" : words(1 + random.nextInt(6));
+            int kind = random.nextInt(10);
+            values.content = kind < 3 ? shared[random.nextInt(SHARED_CONTENTS)]
+                    : kind < 4 ? "" : kind < 9 ? content(20 + random.nextInt(200)) : content(1000 + random.nextInt(4000));
+            values.onclick = random.nextInt(5) == 0 ? "map.show(" + i + ", '" + words(1) + "')" : "";
+            values.extra = "";
+            template.render(sb, values);
+            if (sb.length() > 1 << 19) {
+                writer.append(sb);
+                sb.setLength(0);
+            }
+        }
+        sb.append("</map>\n");
+        writer.append(sb);
+    }
+
+    private String words(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    // Markup with line breaks, entities and quotes, roughly the given number of characters long.
+    private String content(int length) {
+        StringBuilder sb = new StringBuilder(length + 32);
+        while (sb.length() < length) {
+            int kind = random.nextInt(12);
+            if (kind == 0) {
+                String tag = TAGS[random.nextInt(TAGS.length)];
+                sb.append('<').append(tag).append('>').append(words(1 + random.nextInt(3))).append("</").append(tag).append('>');
+            } else if (kind == 1) {
+                sb.append("<br>\n");
+            } else if (kind == 2) {
+                sb.append("&quot;").append(words(1)).append("&quot; & \"").append(words(1)).append('"');
+            } else {
+                sb.append(words(1));
+            }
+            sb.append(random.nextInt(4) == 0 ? "  " : " ");
+        }
+        return sb.toString().trim();
+    }
+
+    // Grey checkerboard in the map's cell size, compresses well even for the large maps.
+    private static void writeImage(Path path, int width, int height, int cell) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                pixels[row + x] = ((x / cell + y / cell) & 1) == 0 ? (byte) 0xE0 : (byte) 0xB0;
+            }
+        }
+        ImageIO.write(image, "png", path.toFile());
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import javafx.scene.image.Image;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// One open image map of the workspace. A document in the background may give up its decoded image and park its areas
+// as a CompactMap; both are restored when it is shown again. The document and each of its areas have an id which stays
+// the same while areas are added and removed, the session journal refers to them by these ids.
+public class Document {
+    // key of the pasted HTML in the session snapshot, it isn't a setting of its own
+    static final String HTML_INPUT = "htmlInput";
+    // rough heap cost of a live area: the rectangle, its three handles, their bindings and the index entries
+    private static final long LIVE_AREA_BYTES = 4096;
+    private static final long PARKED_AREA_BYTES = 64;
+    private static final String MODIFIED = "modified";
+
+    private final int id;
+    private final Map<String, String> settings;
+    private List<ImageArea> areas;
+    private Map<ImageArea, Integer> areaIds = new IdentityHashMap<>();
+    private int nextAreaId = 1;
+    private CompactMap parked;
+    // ids of the parked areas, in their order
+    private int[] parkedIds;
+    private AreaSearchIndex<ImageArea> searchIndex;
+    private SpatialIndex<ImageArea> areaIndex;
+    private Image image;
+    private String htmlInput = "";
+    private List<String> parseWarnings = new ArrayList<>();
+
+    public Document(int id, String filePath) {
+        this.id = id;
+        this.settings = new LinkedHashMap<>();
+        this.settings.put("filePath", filePath);
+        this.settings.put("htmlFilePath", "");
+        this.areas = new ArrayList<>();
+        this.searchIndex = new AreaSearchIndex<>();
+        this.areaIndex = new SpatialIndex<>(64);
+    }
+
+    public Document(int id, Map<String, String> settings, CompactMap parked, int[] parkedIds) {
+        this.id = id;
+        this.settings = new LinkedHashMap<>(settings);
+        this.parked = parked;
+        this.parkedIds = parkedIds;
+        for (int areaId : parkedIds) {
+            nextAreaId = Math.max(nextAreaId, areaId + 1);
+        }
+        setHtmlInput(this.settings.remove(HTML_INPUT));
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        String fileName = getFilePath();
+        fileName = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+        return fileName.isEmpty() ? "Untitled" : fileName;
+    }
+
+    public Map<String, String> getSettings() {
+        return settings;
+    }
+
+    public String getFilePath() {
+        return settings.getOrDefault("filePath", "");
+    }
+
+    public void setFilePath(String filePath) {
+        settings.put("filePath", filePath);
+    }
+
+    public String getHtmlFilePath() {
+        return settings.getOrDefault("htmlFilePath", "");
+    }
+
+    public void setHtmlFilePath(String htmlFilePath) {
+        settings.put("htmlFilePath", htmlFilePath);
+    }
+
+    public boolean isParked() {
+        return parked != null;
+    }
+
+    // Changed since the output was last copied or exported.
+    public boolean isModified() {
+        return Boolean.parseBoolean(settings.get(MODIFIED));
+    }
+
+    public void setModified(boolean modified) {
+        settings.put(MODIFIED, Boolean.toString(modified));
+    }
+
+    // Id of a live area of this document, new areas get the next free one.
+    public int idOf(ImageArea area) {
+        Integer areaId = areaIds.get(area);
+        if (areaId == null) {
+            areaId = nextAreaId++;
+            areaIds.put(area, areaId);
+        }
+        return areaId;
+    }
+
+    public void removeArea(ImageArea area) {
+        areaIds.remove(area);
+    }
+
+    // Ids of all areas in their order, matching toMap().
+    public int[] areaIds() {
+        if (parked != null) {
+            return parkedIds;
+        }
+        int[] ids = new int[areas.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = idOf(areas.get(i));
+        }
+        return ids;
+    }
+
+    // The live areas, a parked document is restored first.
+    public List<ImageArea> getAreas() {
+        if (parked != null) {
+            areas = parked.toAreas(ImageArea::new);
+            areaIds = new IdentityHashMap<>();
+            for (int i = 0; i < areas.size(); i++) {
+                areaIds.put(areas.get(i), parkedIds[i]);
+            }
+            parked = null;
+            parkedIds = null;
+            searchIndex = new AreaSearchIndex<>();
+            searchIndex.rebuild(areas);
+            areaIndex = new SpatialIndex<>(64);
+            for (ImageArea area : areas) {
+                areaIndex.insert(area, area.getX(), area.getY(), area.getX() + area.getWidth(), area.getY() + area.getHeight());
+            }
+        }
+        return areas;
+    }
+
+    // Areas which were already part of the document keep their ids.
+    public void setAreas(List<ImageArea> areas) {
+        getAreas();
+        Map<ImageArea, Integer> kept = new IdentityHashMap<>();
+        for (ImageArea area : areas) {
+            Integer areaId = areaIds.get(area);
+            if (areaId != null) {
+                kept.put(area, areaId);
+            }
+        }
+        this.areas = areas;
+        this.areaIds = kept;
+    }
+
+    public AreaSearchIndex<ImageArea> getSearchIndex() {
+        return searchIndex;
+    }
+
+    public SpatialIndex<ImageArea> getAreaIndex() {
+        return areaIndex;
+    }
+
+    public CompactMap toMap() {
+        return parked != null ? parked : CompactMap.of(getFilePath(), areas);
+    }
+
+    // Keeps only the compact map, the ids and the pasted HTML.
+    public void park() {
+        if (parked == null) {
+            parkedIds = areaIds();
+            parked = CompactMap.of(getFilePath(), areas);
+            areas = null;
+            areaIds = new IdentityHashMap<>();
+            searchIndex = null;
+            areaIndex = null;
+            image = null;
+        }
+    }
+
+    public Image getImage() {
+        return image;
+    }
+
+    public void setImage(Image image) {
+        this.image = image;
+    }
+
+    public void releaseImage() {
+        image = null;
+    }
+
+    public String getHtmlInput() {
+        return htmlInput;
+    }
+
+    public void setHtmlInput(String htmlInput) {
+        this.htmlInput = htmlInput != null ? htmlInput : "";
+    }
+
+    public List<String> getParseWarnings() {
+        return parseWarnings;
+    }
+
+    public void setParseWarnings(List<String> parseWarnings) {
+        this.parseWarnings = parseWarnings;
+    }
+
+    public long imageBytes() {
+        return image != null ? (long) image.getWidth() * (long) image.getHeight() * 4 : 0;
+    }
+
+    public long modelBytes() {
+        if (parked != null) {
+            return parked.size() * PARKED_AREA_BYTES + htmlInput.length() * 2L;
+        }
+        return areas.size() * LIVE_AREA_BYTES + htmlInput.length() * 2L;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// The work behind every typed key of an area: reindexing it, the journal record, the sorted search results, the
+// preview and the output of the whole map. It has no JavaFX in it, so PerformanceSuite measures the same path as the
+// editor.
+public class EditPipeline<A extends MapArea> {
+    private final SessionStore session;
+    private AreaSearchIndex<A> searchIndex;
+    private SpatialIndex<A> areaIndex;
+    private PreviewServer previewServer;
+
+    public EditPipeline(SessionStore session) {
+        this.session = session;
+    }
+
+    // The indexes of the document being edited.
+    public void setIndexes(AreaSearchIndex<A> searchIndex, SpatialIndex<A> areaIndex) {
+        this.searchIndex = searchIndex;
+        this.areaIndex = areaIndex;
+    }
+
+    public void setPreviewServer(PreviewServer previewServer) {
+        this.previewServer = previewServer;
+    }
+
+    public void areaEdited(int document, int areaId, A area) {
+        areaIndex.insert(area, area.getX(), area.getY(), area.getX() + area.getWidth(), area.getY() + area.getHeight());
+        searchIndex.update(area);
+        session.put(document, areaId, area);
+    }
+
+    // Reading order, so Enter walks through the image from the top left
+    public List<A> search(String query) {
+        List<A> results = new ArrayList<>(searchIndex.search(query));
+        results.sort(Comparator.<A>comparingDouble(MapArea::getY).thenComparingDouble(MapArea::getX));
+        return results;
+    }
+
+    // Publishes the areas to the preview and renders them in the format chosen in the editor.
+    public String output(List<A> areas, String format, MapTemplate.Values map, int[] srcsetWidths) {
+        if (previewServer != null) {
+            previewServer.publish(areas);
+        }
+        if ("JSON".equals(format)) {
+            return HtmlWriter.writeJson(map.src, areas);
+        }
+        MapEmitter emitter = TemplateEmitter.BOOTSTRAP;
+        for (MapEmitter e : TemplateEmitter.builtIn()) {
+            if (e.getName().equals(format)) {
+                emitter = e;
+            }
+        }
+        if (emitter == TemplateEmitter.BOOTSTRAP && srcsetWidths.length > 0 && map.imageWidth > 0) {
+            return HtmlWriter.writeResponsive(areas, map.imageWidth, srcsetWidths);
+        }
+        return HtmlWriter.write(areas, emitter, map);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Watches single files and runs their callback on a background thread once the file stopped changing.
+public class FileWatcher implements Closeable {
+    private static final long DEBOUNCE_MILLIS = 300;
+
+    private final WatchService watchService;
+    private final Map<Path, Runnable> callbacks = new ConcurrentHashMap<>();
+    private final Map<Path, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+    private final Set<Path> registeredDirectories = new HashSet<>();
+    private final ScheduledExecutorService executor;
+
+    public FileWatcher() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "FileWatcher reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread watchThread = new Thread(this::watchLoop, "FileWatcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    public synchronized void watch(Path file, Runnable onChange) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        Path directory = path.getParent();
+        if (registeredDirectories.add(directory)) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        callbacks.put(path, onChange);
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path) {
+                        changed(directory.resolve((Path) event.context()).normalize());
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // watcher closed
+        }
+    }
+
+    private void changed(Path path) {
+        Runnable callback = callbacks.get(path);
+        if (callback == null) {
+            return;
+        }
+        // editors often write a file in several steps, only reload after the last one
+        ScheduledFuture<?> previous = pending.put(path, executor.schedule(() -> {
+            try {
+                callback.run();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS));
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
@@ -22,50 +22,168 @@ import javax.swing.text.html.HTML;
 import javax.swing.text.html.HTML.Attribute;
 import javax.swing.text.html.HTMLEditorKit;
 import javax.swing.text.html.parser.ParserDelegator;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class HtmlReader {
-    public static class ParseResult {
+    // shared contents written by SharedContentEmitter
+    private static final Pattern CONTENT_TEMPLATE = Pattern.compile("<template id=\"([^\"]*)\">(.*?)</template>", Pattern.DOTALL);
+    // the named entities HtmlWriter.escapeHtml writes, and &nbsp; which is common in hand written input
+    private static final Map<String, String> NAMED_ENTITIES = new HashMap<>();
+
+    static {
+        String[] entities = {"agrave", "à", "Agrave", "À", "acirc", "â", "Acirc", "Â", "aring", "å", "Aring", "Å",
+                "aelig", "æ", "AElig", "Æ", "ccedil", "ç", "Ccedil", "Ç", "eacute", "é", "Eacute", "É", "egrave", "è",
+                "Egrave", "È", "ecirc", "ê", "Ecirc", "Ê", "euml", "ë", "Euml", "Ë", "iuml", "ï", "Iuml", "Ï", "ocirc", "ô",
+                "Ocirc", "Ô", "oslash", "ø", "Oslash", "Ø", "szlig", "ß", "ugrave", "ù", "Ugrave", "Ù", "ucirc", "û",
+                "Ucirc", "Û", "reg", "®", "copy", "©", "euro", "€", "nbsp", "\u00a0"};
+        for (int i = 0; i < entities.length; i += 2) {
+            NAMED_ENTITIES.put(entities[i], entities[i + 1]);
+        }
+    }
+
+    public static class ParseResult<A extends MapArea> {
         private String imgSrc;
-        private List<ImageArea> areas;
+        private List<A> areas;
+        private List<String> warnings;
+
+        public ParseResult(String imgSrc, List<A> areas) {
+            this(imgSrc, areas, new ArrayList<>());
+        }
 
-        public ParseResult(String imgSrc, List<ImageArea> areas) {
+        public ParseResult(String imgSrc, List<A> areas, List<String> warnings) {
             this.imgSrc = imgSrc;
             this.areas = areas;
+            this.warnings = warnings;
         }
 
         public String getImgSrc() {
             return imgSrc;
         }
 
-        public List<ImageArea> getAreas() {
+        public List<A> getAreas() {
             return areas;
         }
+
+        // Corrections made while reading, e.g. coordinates moved into the image
+        public List<String> getWarnings() {
+            return warnings;
+        }
+    }
+
+    public static <A extends MapArea> ParseResult<A> read(String input, MapArea.Factory<A> factory) throws Exception {
+        MapParser<A> mapParser = new MapParser<>(factory);
+        if (input.contains("<template")) {
+            Matcher template = CONTENT_TEMPLATE.matcher(input);
+            while (template.find()) {
+                mapParser.sharedContents.put(unescapeXml(template.group(1)), unescapeXml(template.group(2)));
+            }
+        }
+        ParserDelegator pd = new ParserDelegator();
+        pd.parse(new StringReader(input), mapParser, false);
+        if (mapParser.thrownException) {
+            throw new Exception("Exception occured during parsing.");
+        } else {
+            return new ParseResult<>(mapParser.imgSrc, mapParser.areas, mapParser.warnings);
+        }
+    }
+
+    // Map files are read and written as UTF-8, whatever the platform charset is.
+    public static String readFile(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    public static <A extends MapArea> ParseResult<A> readJson(String input, MapArea.Factory<A> factory) throws Exception {
+        try {
+            CompactMap map = CompactMap.fromJson(input);
+            return new ParseResult<>(map.getImgSrc(), map.toAreas(factory));
+        } catch (IllegalArgumentException ex) {
+            throw new Exception("Exception occured during parsing: " + ex.getMessage(), ex);
+        }
+    }
+
+    public static <A extends MapArea> ParseResult<A> readBinary(byte[] input, MapArea.Factory<A> factory) throws Exception {
+        try {
+            CompactMap map = CompactMap.fromBinary(ByteBuffer.wrap(input));
+            return new ParseResult<>(map.getImgSrc(), map.toAreas(factory));
+        } catch (IllegalArgumentException ex) {
+            throw new Exception("Exception occured during parsing: " + ex.getMessage(), ex);
+        }
     }
 
-    public static ParseResult read(String input, List<ImageArea> areas) throws Exception {
-        MapParser mapParser = new MapParser();
-        try (InputStream stream = new ByteArrayInputStream(input.getBytes())) {
-            ParserDelegator pd = new ParserDelegator();
-            pd.parse(new BufferedReader(new InputStreamReader(stream)), mapParser, false);
-            if (mapParser.thrownException) {
-                throw new Exception("Exception occured during parsing.");
+    // The entities the emitters write, plus numeric ones. Unknown entities are kept as they are.
+    static String unescapeXml(String s) {
+        if (s.indexOf('&') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            int end = c == '&' ? s.indexOf(';', i) : -1;
+            String replacement = end > i ? entity(s.substring(i + 1, end)) : null;
+            if (replacement == null) {
+                sb.append(c);
+                i++;
             } else {
-                return new ParseResult(mapParser.imgSrc, mapParser.areas);
+                sb.append(replacement);
+                i = end + 1;
             }
         }
+        return sb.toString();
+    }
+
+    private static String entity(String name) {
+        switch (name) {
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "apos":
+                return "'";
+            default:
+                if (NAMED_ENTITIES.containsKey(name)) {
+                    return NAMED_ENTITIES.get(name);
+                }
+                try {
+                    if (name.startsWith("#x") || name.startsWith("#X")) {
+                        return new String(Character.toChars(Integer.parseInt(name.substring(2), 16)));
+                    } else if (name.startsWith("#")) {
+                        return new String(Character.toChars(Integer.parseInt(name.substring(1))));
+                    }
+                } catch (IllegalArgumentException ex) {
+                    // not a valid code point, kept as it is
+                }
+                return null;
+        }
     }
 
-    private static class MapParser extends HTMLEditorKit.ParserCallback {
-        List<ImageArea> areas = new ArrayList<>();
+    private static class MapParser<A extends MapArea> extends HTMLEditorKit.ParserCallback {
+        final MapArea.Factory<A> factory;
+        List<A> areas = new ArrayList<>();
+        List<String> warnings = new ArrayList<>();
+        Map<String, String> sharedContents = new HashMap<>();
         String imgSrc = null;
         boolean thrownException = false;
 
+        MapParser(MapArea.Factory<A> factory) {
+            this.factory = factory;
+        }
+
         @Override
         public void handleStartTag(HTML.Tag t, MutableAttributeSet a, int pos) {
             handleSimpleTag(t, a, 0);
@@ -90,34 +208,49 @@ public class HtmlReader {
                 String alt = (String) a.getAttribute(Attribute.ALT);
                 String dataContent = (String) a.getAttribute("data-content");
                 String onclick = (String) a.getAttribute("onclick");
+                String contentRef = (String) a.getAttribute("data-content-ref");
+                if (dataContent == null && contentRef != null) {
+                    dataContent = sharedContents.get(contentRef);
+                    if (dataContent == null) {
+                        warnings.add("Area " + (areas.size() + 1) + " references the missing content " + contentRef);
+                    }
+                }
+                addArea(coords, title, alt, dataContent, onclick);
+            }
+        }
 
-                String[] coordinates = coords.split("[,]");
-                if (coordinates.length == 4) {
-                    try {
-                        double x = Double.parseDouble(coordinates[0]);
-                        double y = Double.parseDouble(coordinates[1]);
-                        double width = Double.parseDouble(coordinates[2]) - Double.parseDouble(coordinates[0]);
-                        double height = Double.parseDouble(coordinates[3]) - Double.parseDouble(coordinates[1]);
-
-                        if (width < 0) {
-                            x = x + width;
-                            width = -width;
-                        }
-                        if (height < 0) {
-                            y = y + height;
-                            height = -height;
-                        }
-                        if (x <= 0)
-                            x = 1;
-                        if (y <= 0)
-                            y = 1;
-                        ImageArea newImageArea = new ImageArea(x, y, width, height, title, alt, dataContent, onclick);
-                        areas.add(newImageArea);
-
-                    } catch (Exception ex) {
-                        thrownException = true;
+        void addArea(String coords, String title, String alt, String dataContent, String onclick) {
+            String[] coordinates = coords.split("[,]");
+            if (coordinates.length == 4) {
+                try {
+                    double x = Double.parseDouble(coordinates[0]);
+                    double y = Double.parseDouble(coordinates[1]);
+                    double width = Double.parseDouble(coordinates[2]) - Double.parseDouble(coordinates[0]);
+                    double height = Double.parseDouble(coordinates[3]) - Double.parseDouble(coordinates[1]);
+
+                    if (width < 0) {
+                        x = x + width;
+                        width = -width;
+                    }
+                    if (height < 0) {
+                        y = y + height;
+                        height = -height;
                     }
+                    if (x <= 0) {
+                        warnings.add("Area " + (areas.size() + 1) + " (" + coords + "): x <= 0 was changed to 1");
+                        x = 1;
+                    }
+                    if (y <= 0) {
+                        warnings.add("Area " + (areas.size() + 1) + " (" + coords + "): y <= 0 was changed to 1");
+                        y = 1;
+                    }
+                    areas.add(factory.create(x, y, width, height, title, alt, dataContent, onclick));
+
+                } catch (Exception ex) {
+                    thrownException = true;
                 }
+            } else {
+                warnings.add("Area with coords \"" + coords + "\" was skipped, rect needs 4 coordinates");
             }
         }
     }
@@ -21,24 +21,58 @@ import java.util.List;
 
 public class HtmlWriter {
 
-    public static String write(List<ImageArea> areas) {
+    public static String write(List<? extends MapArea> areas) {
+        return write(areas, TemplateEmitter.BOOTSTRAP, new MapTemplate.Values());
+    }
+
+    public static String write(List<? extends MapArea> areas, MapEmitter emitter, MapTemplate.Values map) {
         try {
+            StringBuilder sb = new StringBuilder(areas.size() * 160);
+            emitter.emit(areas, map, sb);
+            return sb.toString();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+    // Adds a pre-scaled data-coords-<width> attribute per target width, so srcset images need no client-side rescaling
+    public static String writeResponsive(List<? extends MapArea> areas, double imageWidth, int... targetWidths) {
+        try {
+            // unrounded, so every scaled value is rounded only once
+            double[] coords = new double[areas.size() * 4];
+            int i = 0;
+            for (MapArea area : areas) {
+                coords[i++] = area.getX();
+                coords[i++] = area.getY();
+                coords[i++] = area.getX() + area.getWidth();
+                coords[i++] = area.getY() + area.getHeight();
+            }
+            double[] factors = new double[targetWidths.length];
+            for (int w = 0; w < targetWidths.length; w++) {
+                factors[w] = targetWidths[w] / imageWidth;
+            }
+
             StringBuilder sb = new StringBuilder();
-            for (ImageArea area : areas) {
-                sb.append("<area ");
-                sb.append("shape=\"rect\" ");
-                sb.append("coords=\"").append(area.getCoordsString()).append("\" ");
-                sb.append("alt=\"").append(escapeHtmlString(area.getAlt())).append("\" ");
-                sb.append("data-toggle=\"popover\" ");
-                sb.append("data-trigger=\"hover\" ");
-                if (area.getTitle() != null && !"".equals(area.getTitle())) {
-                    sb.append("title=\"").append(escapeHtmlString(area.getTitle())).append("\" ");
+            StringBuilder scaled = new StringBuilder();
+            MapTemplate template = TemplateEmitter.BOOTSTRAP.getAreaTemplate();
+            MapTemplate.Values values = new MapTemplate.Values();
+            i = 0;
+            for (MapArea area : areas) {
+                scaled.setLength(0);
+                for (int w = 0; w < targetWidths.length; w++) {
+                    scaled.append("data-coords-").append(targetWidths[w]).append("=\"");
+                    for (int c = 0; c < 4; c++) {
+                        if (c > 0) {
+                            scaled.append(',');
+                        }
+                        scaled.append(Math.round(coords[i + c] * factors[w]));
+                    }
+                    scaled.append("\" ");
                 }
-                if (area.getOnClick() != null && !"".equals(area.getOnClick())) {
-                    sb.append("onclick=\"").append(area.getOnClick()).append("\" ");
-                }
-                sb.append("data-content=\"").append(escapeHtmlString(area.getDataContent())).append("\" ");
-                sb.append("/>\n");
+                values.setArea(area, i / 4).extra = scaled;
+                template.render(sb, values);
+                i += 4;
             }
 
             return sb.toString();
@@ -48,7 +82,41 @@ public class HtmlWriter {
         return null;
     }
 
-    private static String escapeHtmlString(String s) {
+    public static String writeJson(String imgSrc, List<? extends MapArea> areas) {
+        return CompactMap.of(imgSrc, areas).toJson();
+    }
+
+    public static byte[] writeBinary(String imgSrc, List<? extends MapArea> areas) {
+        return CompactMap.of(imgSrc, areas).toBinary();
+    }
+
+    static String escapeHtmlString(String s) {
+        return AttributePool.escaped(s);
+    }
+
+    // For text between tags, quotes don't need escaping there
+    static String escapeText(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String escapeHtml(String s) {
         StringBuilder sb = new StringBuilder();
         int n = s.length();
         for (int i = 0; i < n; i++) {
@@ -31,7 +31,7 @@ import java.awt.*;
 import java.util.Arrays;
 import java.util.List;
 
-public class ImageArea extends Rectangle {
+public class ImageArea extends Rectangle implements MapArea {
 
     private final double HANDLE_RADIUS = 5;
     private final Color HANDLE_COLOR = new Color(1.0f, 0.5f, 0.5f, 1.0);
@@ -42,6 +42,8 @@ public class ImageArea extends Rectangle {
     private final Color DEFAULT_FILL_COLOR = new Color(1, 0, 0, 0.2);
     private final Color MOUSE_OVER_COLOR = new Color(0, 0, 1, 0.3);
     private final Color MARK_COLOR = new Color(0, 1, 0, 0.2);
+    private final Color PROBLEM_STROKE_COLOR = Color.ORANGE;
+    private final Color HIGHLIGHT_STROKE_COLOR = Color.DODGERBLUE;
 
     private Circle resizeHandleNW;
     private Circle resizeHandleSE;
@@ -52,6 +54,8 @@ public class ImageArea extends Rectangle {
     private String dataContent;
     private String onClick;
     private boolean marked;
+    private boolean problem;
+    private boolean highlighted;
 
     public ImageArea(double x, double y, double width, double height) {
         this(x, y, width, height, "", "", "", "");
@@ -59,10 +63,10 @@ public class ImageArea extends Rectangle {
 
     public ImageArea(double x, double y, double width, double height, String title, String alt, String dataContent, String onClick) {
         super(x, y, width, height);
-        this.title = title;
-        this.alt = alt;
-        this.dataContent = dataContent;
-        this.onClick = onClick;
+        this.title = AttributePool.intern(title);
+        this.alt = AttributePool.intern(alt);
+        this.dataContent = AttributePool.intern(dataContent);
+        this.onClick = AttributePool.intern(onClick);
         this.marked = false;
 
         this.setFill(DEFAULT_FILL_COLOR);
@@ -73,29 +77,10 @@ public class ImageArea extends Rectangle {
 
         makeDraggable();
 
-        this.setOnMouseEntered(e -> {
-            if (!marked) {
-                this.setFill(MOUSE_OVER_COLOR);
-            }
-        });
-        this.setOnMouseExited(e -> {
-            if (!marked) {
-                this.setFill(DEFAULT_FILL_COLOR);
-            }
-        });
+        // hover and selection are resolved by the pane, only the handles take mouse events themselves
+        this.setMouseTransparent(true);
         for (Circle c : getHandleCircles()) {
-            c.setOnMouseEntered(e -> {
-                if (!marked) {
-                    this.setFill(MOUSE_OVER_COLOR);
-
-                }
-            });
-            c.setOnMouseExited(e -> {
-                if (!marked) {
-                    this.setFill(DEFAULT_FILL_COLOR);
-
-                }
-            });
+            c.setUserData(this);
         }
     }
 
@@ -296,7 +281,7 @@ public class ImageArea extends Rectangle {
     }
 
     public void setTitle(String title) {
-        this.title = title;
+        this.title = AttributePool.intern(title);
     }
 
     public String getAlt() {
@@ -304,7 +289,7 @@ public class ImageArea extends Rectangle {
     }
 
     public void setAlt(String alt) {
-        this.alt = alt;
+        this.alt = AttributePool.intern(alt);
     }
 
     public String getDataContent() {
@@ -312,7 +297,7 @@ public class ImageArea extends Rectangle {
     }
 
     public void setDataContent(String dataContent) {
-        this.dataContent = dataContent;
+        this.dataContent = AttributePool.intern(dataContent);
     }
 
     public String getOnClick() {
@@ -320,16 +305,22 @@ public class ImageArea extends Rectangle {
     }
 
     public void setOnClick(String onClick) {
-        this.onClick = onClick;
+        this.onClick = AttributePool.intern(onClick);
     }
 
-    public boolean isMarked() {
-        return marked;
+    public void setValues(MapArea other) {
+        this.setX(other.getX());
+        this.setY(other.getY());
+        this.setWidth(other.getWidth());
+        this.setHeight(other.getHeight());
+        this.title = AttributePool.intern(other.getTitle());
+        this.alt = AttributePool.intern(other.getAlt());
+        this.dataContent = AttributePool.intern(other.getDataContent());
+        this.onClick = AttributePool.intern(other.getOnClick());
     }
 
-    public String getCoordsString() {
-        return String.format("%.0f,%.0f,%.0f,%.0f", this.getX(), this.getY(),
-                this.getX() + this.getWidth(), this.getY() + this.getHeight());
+    public boolean isMarked() {
+        return marked;
     }
 
     public void setMarked(boolean marked) {
@@ -347,6 +338,44 @@ public class ImageArea extends Rectangle {
         }
     }
 
+    public void setHovered(boolean hovered) {
+        if (!marked) {
+            this.setFill(hovered ? MOUSE_OVER_COLOR : DEFAULT_FILL_COLOR);
+        }
+    }
+
+    public boolean hasProblem() {
+        return problem;
+    }
+
+    public void setProblem(boolean problem) {
+        this.problem = problem;
+        updateStroke();
+    }
+
+    public boolean isHighlighted() {
+        return highlighted;
+    }
+
+    public void setHighlighted(boolean highlighted) {
+        this.highlighted = highlighted;
+        updateStroke();
+    }
+
+    // a search match is shown over a validation problem
+    private void updateStroke() {
+        if (highlighted) {
+            this.setStroke(HIGHLIGHT_STROKE_COLOR);
+            this.setStrokeWidth(3);
+        } else if (problem) {
+            this.setStroke(PROBLEM_STROKE_COLOR);
+            this.setStrokeWidth(3);
+        } else {
+            this.setStroke(Color.RED);
+            this.setStrokeWidth(1);
+        }
+    }
+
     public List<Circle> getHandleCircles() {
         return Arrays.asList(resizeHandleNW, moveHandle, resizeHandleSE);
     }
@@ -17,7 +17,10 @@
 
 package imageMapper;
 
+import javafx.animation.Animation;
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.HPos;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -27,21 +30,35 @@ import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
 import javafx.scene.shape.Circle;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 public class ImageMapper extends Application {
     private Pane stackPane;
+    // the image, the areas and the handles of unmarked areas, never picked, so hovering does not depend on the area count
+    private Pane areaLayer;
     private ImageView imageView;
 
     private List<ImageArea> imageAreas = new ArrayList<>();
@@ -57,26 +74,90 @@ public class ImageMapper extends Application {
     private Button removeLineBreaksBtn;
     private Button removeWhitespacesBtn;
     private TextField onclickText;
+    private TextField srcsetWidthsText;
+    private ChoiceBox<String> outputFormatChoice;
+    private TextField htmlFilePathText;
+    private CheckBox watchCheckBox;
+    private FileWatcher fileWatcher;
+    private Label validationLabel;
+    // corrections made while reading the input, their area numbers and coordinates only hold until the first edit
+    private List<String> parseWarnings = new ArrayList<>();
+    private CheckBox previewCheckBox;
+    private Hyperlink previewLink;
+    private PreviewServer previewServer;
+    private TextField searchText;
+    private Label searchResultLabel;
+    private List<ImageArea> searchResults = new ArrayList<>();
+    private ImageArea hoveredArea;
+    private final SessionStore session = new SessionStore(Paths.get("ImageMapper.session"), Paths.get("ImageMapper.journal"));
+    private final EditPipeline<ImageArea> editPipeline = new EditPipeline<>(session);
+    private final List<Document> documents = new ArrayList<>();
+    private final MemoryBudget memoryBudget = new MemoryBudget(Runtime.getRuntime().maxMemory() / 2);
+    private Document document;
+    private int nextDocumentId = 1;
+    private TabPane documentTabs;
+    private boolean switching;
+    // coordinates of the marked area when the mouse was pressed, a release without a change isn't an edit
+    private String pressedCoords;
+    // typed HTML input is snapshotted once the typing pauses, not on every key
+    private PauseTransition snapshotDelay;
 
     @Override
     public void start(Stage primaryStage) {
+        snapshotDelay = new PauseTransition(Duration.millis(500));
+        snapshotDelay.setOnFinished(e -> saveSnapshot());
         stackPane = new Pane();
         imageView = new ImageView();
-        stackPane.getChildren().add(imageView);
-        stackPane.setOnMouseReleased(e -> updateFieldsForMarked());
+        areaLayer = new Pane(imageView);
+        areaLayer.setMouseTransparent(true);
+        stackPane.getChildren().add(areaLayer);
+        stackPane.setOnMouseMoved(e -> setHoveredArea(pickArea(e)));
+        stackPane.setOnMouseExited(e -> setHoveredArea(null));
+        stackPane.setOnMousePressed(e -> {
+            ImageArea area = pickArea(e);
+            if (area != null) {
+                areaClickedOrAdded(area);
+                pressedCoords = area.getCoordsString();
+            }
+        });
+        stackPane.setOnMouseReleased(e -> {
+            if (markedImageArea != null && !markedImageArea.getCoordsString().equals(pressedCoords)) {
+                recordArea(markedImageArea);
+                parseWarnings = new ArrayList<>();
+            }
+            pressedCoords = null;
+            updateFieldsForMarked();
+        });
 
         GridPane grid = new GridPane();
         grid.setAlignment(Pos.TOP_LEFT);
         grid.setHgap(5);
         grid.setVgap(5);
         grid.setPadding(new Insets(10, 10, 10, 10));
-        grid.add(stackPane, 0, 1, 4, 11);
+        documentTabs = new TabPane();
+        documentTabs.getSelectionModel().selectedItemProperty().addListener((obs, oldTab, newTab) -> {
+            if (!switching && newTab != null && newTab.getUserData() != document) {
+                showDocument((Document) newTab.getUserData());
+            }
+        });
+        Button newDocumentBtn = new Button("New map");
+        newDocumentBtn.setOnAction(e -> {
+            documentTabs.getSelectionModel().select(addDocument(newDocument("")));
+            saveSnapshot();
+        });
+        HBox documentBar = new HBox(5, documentTabs, newDocumentBtn);
+        HBox.setHgrow(documentTabs, Priority.ALWAYS);
+        grid.add(new VBox(5, documentBar, stackPane), 0, 1, 4, 11);
         initControls(grid);
 
         primaryStage.setOnCloseRequest(e -> {
-            saveProperties();
+            // no reload may be queued behind the final snapshot
+            stopWatching();
+            stopPreview();
+            snapshotDelay.stop();
+            session.close(sessionState());
         });
-        loadProperties();
+        loadSession();
 
         primaryStage.setTitle("ImageMapper");
         Scene scene = new Scene(grid, 1500, 768);
@@ -86,12 +167,175 @@ public class ImageMapper extends Application {
         primaryStage.show();
     }
 
+    private void loadSession() {
+        SessionStore.State state = null;
+        try {
+            state = session.load();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        if (state == null || state.getDocuments().isEmpty()) {
+            documentTabs.getSelectionModel().select(addDocument(newDocument(filePathText.getText())));
+            showDocument(documents.get(0));
+            loadProperties();
+            return;
+        }
+        Map<String, String> settings = state.getSettings();
+        basePathText.setText(settings.getOrDefault("basePath", basePathText.getText()));
+        srcsetWidthsText.setText(settings.getOrDefault("srcsetWidths", ""));
+        outputFormatChoice.setValue(settings.getOrDefault("outputFormat", "HTML"));
+        // all documents start parked, only the active one is restored
+        switching = true;
+        for (SessionStore.DocumentState documentState : state.getDocuments()) {
+            addDocument(new Document(documentState.getId(), documentState.getSettings(), documentState.getMap(),
+                    documentState.getAreaIds()));
+            nextDocumentId = Math.max(nextDocumentId, documentState.getId() + 1);
+        }
+        switching = false;
+        int active = Math.min(state.getActive(), documents.size() - 1);
+        showDocument(documents.get(active));
+        documentTabs.getSelectionModel().select(active);
+    }
+
+    private Map<String, String> workspaceSettings() {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("basePath", basePathText.getText());
+        settings.put("srcsetWidths", srcsetWidthsText.getText());
+        settings.put("outputFormat", outputFormatChoice.getValue());
+        return settings;
+    }
+
+    private SessionStore.State sessionState() {
+        List<SessionStore.DocumentState> states = new ArrayList<>();
+        for (Document d : documents) {
+            Map<String, String> settings = new LinkedHashMap<>(d.getSettings());
+            if (!d.getHtmlInput().isEmpty()) {
+                settings.put(Document.HTML_INPUT, d.getHtmlInput());
+            }
+            states.add(new SessionStore.DocumentState(d.getId(), settings, d.toMap(), d.areaIds()));
+        }
+        return new SessionStore.State(workspaceSettings(), states, Math.max(0, documents.indexOf(document)));
+    }
+
+    // for edits of single areas, the journal only grows by that area
+    private void recordArea(ImageArea area) {
+        flushSnapshot();
+        document.setModified(true);
+        // the edit may have fixed the problem, the next validation marks it again otherwise
+        area.setProblem(false);
+        editPipeline.areaEdited(document.getId(), document.idOf(area), area);
+        if (session.needsCompaction()) {
+            saveSnapshot();
+        }
+    }
+
+    private void saveSnapshot() {
+        snapshotDelay.stop();
+        session.snapshot(sessionState());
+    }
+
+    private void requestSnapshot() {
+        snapshotDelay.playFromStart();
+    }
+
+    // The journal records edits against the last snapshot, so a waiting snapshot has to be written first.
+    private void flushSnapshot() {
+        if (snapshotDelay.getStatus() == Animation.Status.RUNNING) {
+            saveSnapshot();
+        }
+    }
+
+    private Document newDocument(String filePath) {
+        return new Document(nextDocumentId++, filePath);
+    }
+
+    private Tab addDocument(Document newDocument) {
+        Tab tab = new Tab(newDocument.getName());
+        tab.setUserData(newDocument);
+        tab.setOnCloseRequest(e -> {
+            if (newDocument.isModified()) {
+                Alert alert = new Alert(Alert.AlertType.CONFIRMATION, newDocument.getName()
+                        + " was changed since its output was last copied or exported. Close it anyway?",
+                        ButtonType.OK, ButtonType.CANCEL);
+                alert.setHeaderText(null);
+                if (alert.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
+                    e.consume();
+                }
+            }
+        });
+        tab.setOnClosed(e -> closeDocument(newDocument));
+        documents.add(newDocument);
+        documentTabs.getTabs().add(tab);
+        return tab;
+    }
+
+    private void closeDocument(Document closed) {
+        documents.remove(closed);
+        memoryBudget.remove(closed);
+        if (documents.isEmpty()) {
+            documentTabs.getSelectionModel().select(addDocument(newDocument("")));
+        }
+        saveSnapshot();
+    }
+
+    // Areas and indexes stay with their document, switching only exchanges the nodes on the pane.
+    private void showDocument(Document target) {
+        if (target == document) {
+            return;
+        }
+        if (document != null) {
+            setHoveredArea(null);
+            if (markedImageArea != null) {
+                markedImageArea.setMarked(false);
+            }
+            document.setHtmlInput(htmlInputText.getText());
+            document.setParseWarnings(parseWarnings);
+        }
+        document = target;
+        memoryBudget.touch(target);
+        imageAreas = target.getAreas();
+        editPipeline.setIndexes(target.getSearchIndex(), target.getAreaIndex());
+        markedImageArea = null;
+        parseWarnings = target.getParseWarnings();
+        stackPane.getChildren().setAll(areaLayer);
+        areaLayer.getChildren().setAll(imageView);
+        List<ImageArea> reversed = new ArrayList<>(imageAreas);
+        // same stacking as installArea, which puts every new area right above the image
+        Collections.reverse(reversed);
+        for (ImageArea area : reversed) {
+            areaLayer.getChildren().add(area);
+        }
+        switching = true;
+        htmlInputText.setText(target.getHtmlInput());
+        switching = false;
+        filePathText.setText(target.getFilePath());
+        htmlFilePathText.setText(target.getHtmlFilePath());
+        if (target.getImage() != null) {
+            imageView.setImage(target.getImage());
+            if (previewServer != null) {
+                previewServer.setImage(Paths.get(basePathText.getText(), filePathText.getText()));
+            }
+        } else if (!target.getFilePath().isEmpty()) {
+            loadImage();
+        } else {
+            imageView.setImage(null);
+        }
+        memoryBudget.enforce(target);
+        session.active(target.getId());
+        updateSearch();
+        updateWatching();
+        updateFieldsForMarked();
+    }
+
+    // Settings of versions before the session file, only read if there is no session yet.
     private void loadProperties() {
         Properties prop = new Properties();
         try (InputStream reader = new FileInputStream("ImageMapper.properties")) {
             prop.load(reader);
             basePathText.setText(prop.getProperty("basePath"));
             filePathText.setText(prop.getProperty("filePath"));
+            srcsetWidthsText.setText(prop.getProperty("srcsetWidths", ""));
+            htmlFilePathText.setText(prop.getProperty("htmlFilePath", ""));
             htmlInputText.setText(prop.getProperty("outputHtmlText"));
             updateFieldsForMarked();
             updateMarkedFromFields();
@@ -100,25 +344,14 @@ public class ImageMapper extends Application {
         }
     }
 
-    private void saveProperties() {
-        Properties prop = new Properties();
-        prop.setProperty("basePath", basePathText.getText());
-        prop.setProperty("filePath", filePathText.getText());
-        prop.setProperty("outputHtmlText", htmlOutputText.getText());
-        try (OutputStream writer = new FileOutputStream("ImageMapper.properties")) {
-            prop.store(writer, "");
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
-    }
-
     private void areaClickedOrAdded(ImageArea clickedArea) {
-        for (ImageArea i : imageAreas) {
-            i.setMarked(false);
+        if (markedImageArea != null) {
+            markedImageArea.setMarked(false);
+            areaLayer.getChildren().addAll(markedImageArea.getHandleCircles());
         }
         markedImageArea = clickedArea;
         markedImageArea.setMarked(true);
-        stackPane.getChildren().removeAll(markedImageArea.getHandleCircles());
+        // only the handles of the marked area leave the layer and can be dragged
         stackPane.getChildren().addAll(markedImageArea.getHandleCircles());
 
         htmlInputText.setStyle("-fx-control-inner-background: white; -fx-text-fill: lightgrey; -fx-font-family: \"Courier New\";");
@@ -128,6 +361,36 @@ public class ImageMapper extends Application {
         updateFieldsForMarked();
     }
 
+    // A handle belongs to its area, otherwise the smallest area under the cursor wins, so nested areas stay reachable.
+    private ImageArea pickArea(MouseEvent e) {
+        if (e.getTarget() instanceof Circle && ((Circle) e.getTarget()).getUserData() instanceof ImageArea) {
+            return (ImageArea) ((Circle) e.getTarget()).getUserData();
+        }
+        ImageArea picked = null;
+        for (ImageArea area : document.getAreaIndex().query(e.getX(), e.getY())) {
+            if (picked == null || area.getWidth() * area.getHeight() < picked.getWidth() * picked.getHeight()) {
+                picked = area;
+            }
+        }
+        return picked;
+    }
+
+    private void setHoveredArea(ImageArea area) {
+        if (area != hoveredArea) {
+            if (hoveredArea != null) {
+                hoveredArea.setHovered(false);
+            }
+            hoveredArea = area;
+            if (area != null) {
+                area.setHovered(true);
+            }
+        }
+    }
+
+    private void indexArea(ImageArea area) {
+        document.getAreaIndex().insert(area, area.getX(), area.getY(), area.getX() + area.getWidth(), area.getY() + area.getHeight());
+    }
+
     private void updateFieldsForMarked() {
         if (markedImageArea != null) {
             coordsText.setStyle("-fx-control-inner-background: white;");
@@ -152,7 +415,7 @@ public class ImageMapper extends Application {
             removeWhitespacesBtn.setDisable(true);
             onclickText.setDisable(true);
         }
-        htmlOutputText.setText(HtmlWriter.write(imageAreas));
+        updateOutput();
     }
 
     private void updateMarkedFromFields() {
@@ -180,8 +443,81 @@ public class ImageMapper extends Application {
             markedImageArea.setAlt(altText.getText());
             markedImageArea.setDataContent(contentText.getText());
             markedImageArea.setOnClick(onclickText.getText());
+            parseWarnings = new ArrayList<>();
+            recordArea(markedImageArea);
+            updateSearch();
+        }
+        updateOutput();
+    }
+
+    private void updateOutput() {
+        if (document == null) {
+            return;
+        }
+        document.setFilePath(filePathText.getText());
+        document.setHtmlFilePath(htmlFilePathText.getText());
+        if (documentTabs.getSelectionModel().getSelectedItem() != null) {
+            documentTabs.getSelectionModel().getSelectedItem().setText(document.getName());
+        }
+        session.settings(workspaceSettings());
+        if (documents.contains(document)) {
+            session.documentSettings(document.getId(), document.getSettings());
         }
-        htmlOutputText.setText(HtmlWriter.write(imageAreas));
+        htmlOutputText.setText(editPipeline.output(imageAreas, outputFormatChoice.getValue(), mapValues(), parseSrcsetWidths()));
+    }
+
+    private void updateSearch() {
+        for (ImageArea area : searchResults) {
+            area.setHighlighted(false);
+        }
+        searchResults = editPipeline.search(searchText.getText());
+        for (ImageArea area : searchResults) {
+            area.setHighlighted(true);
+        }
+        searchResultLabel.setText(searchText.getText().trim().isEmpty() ? "" : searchResults.size() + " match(es)");
+    }
+
+    private void selectNextSearchResult() {
+        if (!searchResults.isEmpty()) {
+            int next = (searchResults.indexOf(markedImageArea) + 1) % searchResults.size();
+            areaClickedOrAdded(searchResults.get(next));
+        }
+    }
+
+    private MapTemplate.Values mapValues() {
+        MapTemplate.Values values = new MapTemplate.Values();
+        values.src = filePathText.getText();
+        values.name = imageBaseName();
+        if (imageView.getImage() != null) {
+            values.imageWidth = (int) imageView.getImage().getWidth();
+            values.imageHeight = (int) imageView.getImage().getHeight();
+        }
+        return values;
+    }
+
+    private String imageBaseName() {
+        String fileName = filePathText.getText();
+        fileName = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+        if (fileName.lastIndexOf('.') > 0) {
+            fileName = fileName.substring(0, fileName.lastIndexOf('.'));
+        }
+        return fileName;
+    }
+
+    private int[] parseSrcsetWidths() {
+        List<Integer> widths = new ArrayList<>();
+        for (String w : srcsetWidthsText.getText().split("[,\\s]+")) {
+            try {
+                if (!w.isEmpty() && Integer.parseInt(w) > 0) {
+                    widths.add(Integer.parseInt(w));
+                }
+            } catch (NumberFormatException ex) {
+                srcsetWidthsText.setStyle("-fx-control-inner-background: orange;");
+                return new int[0];
+            }
+        }
+        srcsetWidthsText.setStyle("-fx-control-inner-background: white;");
+        return widths.stream().mapToInt(Integer::intValue).toArray();
     }
 
     private void initControls(GridPane grid) {
@@ -192,13 +528,20 @@ public class ImageMapper extends Application {
         filePathText = new TextField("Unbenannt.png");
         filePathText.setPrefColumnCount(30);
         Button loadImageBtn = new Button("Load Image");
-        loadImageBtn.setOnAction(e -> loadImage());
+        loadImageBtn.setOnAction(e -> {
+            loadImage();
+            updateWatching();
+        });
 
         Label htmlInputLabel = new Label("HTML input");
         htmlInputText = new TextArea();
         htmlInputText.setPrefRowCount(6);
         htmlInputText.setWrapText(true);
-        htmlInputText.textProperty().addListener((obs, oldText, newText) -> parseHtml(newText));
+        htmlInputText.textProperty().addListener((obs, oldText, newText) -> {
+            if (!switching) {
+                parseHtml(newText);
+            }
+        });
         htmlInputText.setStyle("-fx-control-inner-background: white; -fx-text-fill: black; -fx-font-family: \"Courier New\";");
         htmlInputText.setOnMouseClicked(e -> {
             if (e.getClickCount() >= 2) {
@@ -228,22 +571,29 @@ public class ImageMapper extends Application {
             } else {
                 area = new ImageArea(1, 1, 50, 50);
             }
-            area.setOnMouseClicked(ev -> areaClickedOrAdded(area));
-            for (Circle c : area.getHandleCircles()) {
-                c.setOnMousePressed(ev -> areaClickedOrAdded(area));
-            }
-            stackPane.getChildren().add(1, area);
+            installArea(area);
             imageAreas.add(area);
+            parseWarnings = new ArrayList<>();
+            recordArea(area);
             areaClickedOrAdded(area);
         });
         Button deleteAreaBtn = new Button("Delete area");
         deleteAreaBtn.setOnAction(e ->
         {
             if (markedImageArea != null) {
+                if (documents.contains(document)) {
+                    flushSnapshot();
+                    session.remove(document.getId(), document.idOf(markedImageArea));
+                }
+                document.setModified(true);
+                document.removeArea(markedImageArea);
                 imageAreas.remove(markedImageArea);
-                stackPane.getChildren().removeAll(markedImageArea.getHandleCircles());
-                stackPane.getChildren().remove(markedImageArea);
+                parseWarnings = new ArrayList<>();
+                removeAreaNodes(markedImageArea);
+                document.getAreaIndex().remove(markedImageArea);
+                document.getSearchIndex().remove(markedImageArea);
                 markedImageArea = null;
+                updateSearch();
                 updateFieldsForMarked();
             }
         });
@@ -255,6 +605,7 @@ public class ImageMapper extends Application {
 
             content.putString(htmlOutputText.getText());
             clipboard.setContent(content);
+            document.setModified(false);
         });
 
         Label coordsLabel = new Label("coords");
@@ -282,25 +633,71 @@ public class ImageMapper extends Application {
 
         removeWhitespacesBtn = new Button("Remove whitespaces");
         removeWhitespacesBtn.setOnAction(e -> {
-            while (contentText.getText().contains("  ")) {
-                contentText.setText(contentText.getText().replaceAll(" {2}", " ").trim());
-            }
+            contentText.setText(ContentNormalizer.REMOVE_WHITESPACES.normalize(contentText.getText()));
             updateMarkedFromFields();
         });
         removeLineBreaksBtn = new Button("Remove line breaks");
         removeLineBreaksBtn.setOnAction(e -> {
-            while (contentText.getText().contains("\n")) {
-                contentText.setText(contentText.getText().replaceAll(" \n", " "));
-                contentText.setText(contentText.getText().replaceAll("\n", " "));
-            }
+            contentText.setText(ContentNormalizer.REMOVE_LINE_BREAKS.normalize(contentText.getText()));
             updateMarkedFromFields();
         });
+        Button normalizeAllBtn = new Button("Normalize all areas");
+        normalizeAllBtn.setTooltip(new Tooltip("Collapse every run of whitespace to one space, trim and drop the whitespace next to block-level tags in the content-data of every area"));
+        normalizeAllBtn.setOnAction(e -> {
+            ContentNormalizer.ALL.apply(imageAreas);
+            document.setModified(true);
+            parseWarnings = new ArrayList<>();
+            document.getSearchIndex().rebuild(imageAreas);
+            updateSearch();
+            saveSnapshot();
+            updateFieldsForMarked();
+        });
 
         Label onclickLabel = new Label("onclick");
         onclickText = new TextField();
         onclickText.setStyle("-fx-font-family: \"Courier New\";");
         onclickText.setOnKeyReleased(e -> updateMarkedFromFields());
 
+        Label srcsetWidthsLabel = new Label("srcset widths");
+        srcsetWidthsText = new TextField();
+        srcsetWidthsText.setPromptText("e.g. 480,960,1440");
+        srcsetWidthsText.setStyle("-fx-font-family: \"Courier New\";");
+        srcsetWidthsText.setOnKeyReleased(e -> updateOutput());
+
+        Label outputFormatLabel = new Label("output format");
+        outputFormatChoice = new ChoiceBox<>();
+        for (MapEmitter emitter : TemplateEmitter.builtIn()) {
+            outputFormatChoice.getItems().add(emitter.getName());
+        }
+        outputFormatChoice.getItems().add("JSON");
+        outputFormatChoice.setValue("HTML");
+        outputFormatChoice.setOnAction(e -> updateOutput());
+        Button exportBinaryBtn = new Button("Export binary");
+        exportBinaryBtn.setOnAction(e -> exportBinary());
+
+        Label htmlFilePathLabel = new Label("HTML file");
+        htmlFilePathText = new TextField();
+        htmlFilePathText.setPromptText("linked HTML file to watch, relative to the base path");
+        htmlFilePathText.setOnAction(e -> updateWatching());
+        watchCheckBox = new CheckBox("Watch files");
+        watchCheckBox.setOnAction(e -> updateWatching());
+
+        Button validateBtn = new Button("Validate");
+        validateBtn.setOnAction(e -> validateAreas());
+        validationLabel = new Label();
+
+        previewCheckBox = new CheckBox("Live preview");
+        previewCheckBox.setOnAction(e -> updatePreview());
+        previewLink = new Hyperlink();
+        previewLink.setOnAction(e -> getHostServices().showDocument(previewLink.getText()));
+
+        searchText = new TextField();
+        searchText.setPromptText("Search title, alt, content-data and onclick");
+        searchText.setTooltip(new Tooltip("Press Enter to select the next match"));
+        searchText.textProperty().addListener((obs, oldText, newText) -> updateSearch());
+        searchText.setOnAction(e -> selectNextSearchResult());
+        searchResultLabel = new Label();
+
         Hyperlink infoText = new Hyperlink("https://www.github.com/resclify/ImageMapper");
         infoText.setAlignment(Pos.CENTER_RIGHT);
         infoText.setOnAction(e -> getHostServices().showDocument("https://www.github.com/resclify/ImageMapper"));
@@ -310,6 +707,8 @@ public class ImageMapper extends Application {
         grid.add(filePathLabel, 2, 0);
         grid.add(filePathText, 3, 0);
         grid.add(loadImageBtn, 4, 0, 1, 1);
+        grid.add(searchText, 5, 0);
+        grid.add(searchResultLabel, 6, 0);
 
         grid.add(infoText, 7, 0, 1, 1);
         GridPane.setHalignment(infoText, HPos.RIGHT);
@@ -334,13 +733,32 @@ public class ImageMapper extends Application {
         grid.add(contentText, 5, 7, 3, 1);
         grid.add(removeWhitespacesBtn, 5, 8, 1, 1);
         grid.add(removeLineBreaksBtn, 6, 8, 1, 1);
+        grid.add(normalizeAllBtn, 7, 8, 1, 1);
 
         grid.add(onclickLabel, 4, 9);
         grid.add(onclickText, 5, 9, 3, 1);
+        grid.add(srcsetWidthsLabel, 4, 10);
+        grid.add(srcsetWidthsText, 5, 10, 3, 1);
+        grid.add(outputFormatLabel, 4, 11);
+        grid.add(outputFormatChoice, 5, 11);
+        grid.add(exportBinaryBtn, 6, 11);
+        grid.add(htmlFilePathLabel, 4, 12);
+        grid.add(htmlFilePathText, 5, 12, 2, 1);
+        grid.add(watchCheckBox, 7, 12);
+        grid.add(validateBtn, 5, 13);
+        grid.add(validationLabel, 6, 13, 2, 1);
+        grid.add(previewCheckBox, 5, 14);
+        grid.add(previewLink, 6, 14, 2, 1);
 
     }
 
     private void loadImage() {
+        readImage();
+        updateOutput();
+    }
+
+    // Without updating the output, for callers that replace the areas afterwards.
+    private void readImage() {
         try (InputStream inputStream = new FileInputStream(basePathText.getText() + "/" + filePathText.getText())) {
             Image newImg = new Image(inputStream);
             imageView.setImage(newImg);
@@ -348,33 +766,219 @@ public class ImageMapper extends Application {
             ex.printStackTrace();
             imageView.setImage(null);
         }
+        document.setImage(imageView.getImage());
+        memoryBudget.enforce(document);
+        if (previewServer != null) {
+            previewServer.setImage(Paths.get(basePathText.getText(), filePathText.getText()));
+        }
     }
 
-    private void parseHtml(String htmlString) {
+    private void updateWatching() {
+        stopWatching();
+        if (!watchCheckBox.isSelected()) {
+            return;
+        }
+        try {
+            fileWatcher = new FileWatcher();
+            Document watched = document;
+            Path imagePath = Paths.get(basePathText.getText(), filePathText.getText());
+            fileWatcher.watch(imagePath, () -> reloadImage(imagePath, watched));
+            if (!htmlFilePathText.getText().trim().isEmpty()) {
+                Path htmlPath = Paths.get(basePathText.getText(), htmlFilePathText.getText().trim());
+                fileWatcher.watch(htmlPath, () -> reloadHtml(htmlPath, watched));
+            }
+            watchCheckBox.setStyle("");
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            watchCheckBox.setStyle("-fx-text-fill: orange;");
+            stopWatching();
+        }
+    }
+
+    private void stopWatching() {
+        if (fileWatcher != null) {
+            fileWatcher.close();
+            fileWatcher = null;
+        }
+    }
+
+    // runs on the watcher thread, only the result is handed to the FX thread if the document is still shown
+    private void reloadImage(Path imagePath, Document watched) {
+        try (InputStream inputStream = Files.newInputStream(imagePath)) {
+            Image newImg = new Image(inputStream);
+            if (!newImg.isError()) {
+                Platform.runLater(() -> {
+                    if (watched != document) {
+                        return;
+                    }
+                    imageView.setImage(newImg);
+                    document.setImage(newImg);
+                    if (previewServer != null) {
+                        previewServer.setImage(imagePath);
+                    }
+                    updateOutput();
+                });
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // runs on the watcher thread, only the result is handed to the FX thread if the document is still shown
+    private void reloadHtml(Path htmlPath, Document watched) {
+        try {
+            String text = HtmlReader.readFile(htmlPath);
+            HtmlReader.ParseResult<ImageArea> parseResult = readMap(text);
+            Platform.runLater(() -> {
+                if (watched == document) {
+                    reconcileAreas(parseResult.getAreas(), parseResult.getWarnings());
+                }
+            });
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // Applies a reparsed map to the existing areas, so unchanged areas and the selection survive a reload.
+    private void reconcileAreas(List<ImageArea> newAreas, List<String> warnings) {
+        // the reloaded file is the input now, whether or not its areas changed
+        parseWarnings = warnings;
+        MapDiff.Result<ImageArea> diff = MapDiff.diff(imageAreas, newAreas);
+        if (diff.isEmpty()) {
+            return;
+        }
+        Map<ImageArea, ImageArea> kept = new IdentityHashMap<>();
         for (ImageArea area : imageAreas) {
-            stackPane.getChildren().removeAll(area.getHandleCircles());
+            ImageArea match = diff.getMatch(area);
+            if (match != null) {
+                kept.put(match, area);
+            } else {
+                removeAreaNodes(area);
+                document.getAreaIndex().remove(area);
+                if (area == markedImageArea) {
+                    markedImageArea = null;
+                }
+            }
+        }
+        for (MapDiff.Change<ImageArea> change : diff.getChanges()) {
+            if (change.getType() == MapDiff.ChangeType.MOVED || change.getType() == MapDiff.ChangeType.EDITED) {
+                change.getOldArea().setValues(change.getNewArea());
+                indexArea(change.getOldArea());
+                document.getSearchIndex().update(change.getOldArea());
+            } else if (change.getType() == MapDiff.ChangeType.ADDED) {
+                document.getSearchIndex().update(change.getNewArea());
+            } else {
+                document.getSearchIndex().remove(change.getOldArea());
+            }
+        }
+        List<ImageArea> reconciled = new ArrayList<>(newAreas.size());
+        for (ImageArea area : newAreas) {
+            ImageArea existing = kept.get(area);
+            if (existing == null) {
+                installArea(area);
+                existing = area;
+            }
+            reconciled.add(existing);
         }
-        stackPane.getChildren().removeAll(imageAreas);
-        stackPane.getChildren().clear();
-        stackPane.getChildren().add(imageView);
+        imageAreas = reconciled;
+        document.setAreas(imageAreas);
+        document.setModified(false);
+        updateSearch();
+        saveSnapshot();
+        updateFieldsForMarked();
+    }
+
+    private void updatePreview() {
+        stopPreview();
+        if (!previewCheckBox.isSelected()) {
+            return;
+        }
+        try {
+            previewServer = PreviewServer.start(0);
+            editPipeline.setPreviewServer(previewServer);
+            previewServer.setImage(Paths.get(basePathText.getText(), filePathText.getText()));
+            previewServer.publish(imageAreas);
+            previewLink.setText(previewServer.getUrl());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            previewCheckBox.setSelected(false);
+        }
+    }
+
+    private void stopPreview() {
+        if (previewServer != null) {
+            previewServer.stop();
+            previewServer = null;
+            editPipeline.setPreviewServer(null);
+        }
+        previewLink.setText("");
+    }
+
+    private void validateAreas() {
+        double width = imageView.getImage() != null ? imageView.getImage().getWidth() : 0;
+        double height = imageView.getImage() != null ? imageView.getImage().getHeight() : 0;
+        List<MapValidator.Problem<ImageArea>> problems = MapValidator.validate(imageAreas, width, height);
+        for (ImageArea area : imageAreas) {
+            area.setProblem(false);
+        }
+        List<String> report = new ArrayList<>(parseWarnings);
+        for (MapValidator.Problem<ImageArea> problem : problems) {
+            problem.getArea().setProblem(true);
+            if (problem.getOther() != null) {
+                problem.getOther().setProblem(true);
+            }
+            report.add(problem.toString());
+        }
+        int count = report.size();
+        if (report.size() > 40) {
+            report = new ArrayList<>(report.subList(0, 40));
+            report.add("... and " + (count - 40) + " more");
+        }
+        validationLabel.setText(count == 0 ? "No problems found" : count + " problem(s), see tooltip");
+        validationLabel.setStyle(count == 0 ? "" : "-fx-text-fill: orange;");
+        validationLabel.setTooltip(count == 0 ? null : new Tooltip(String.join("\n", report)));
+    }
+
+    private void exportBinary() {
+        String fileName = filePathText.getText();
+        if (fileName.lastIndexOf('.') > 0) {
+            fileName = fileName.substring(0, fileName.lastIndexOf('.'));
+        }
+        try (OutputStream out = new FileOutputStream(basePathText.getText() + "/" + fileName + ".imap")) {
+            out.write(HtmlWriter.writeBinary(filePathText.getText(), imageAreas));
+            document.setModified(false);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void parseHtml(String htmlString) {
+        document.setHtmlInput(htmlString);
+        stackPane.getChildren().setAll(areaLayer);
+        areaLayer.getChildren().setAll(imageView);
         imageAreas.clear();
+        document.getAreaIndex().clear();
+        hoveredArea = null;
         try {
-            HtmlReader.ParseResult parseResult = HtmlReader.read(htmlString, imageAreas);
+            HtmlReader.ParseResult<ImageArea> parseResult = readMap(htmlString);
+            parseWarnings = parseResult.getWarnings();
             if (parseResult.getImgSrc() != null) {
                 filePathText.setText(parseResult.getImgSrc());
-                loadImage();
+                // the output follows once the new areas are in place
+                readImage();
             }
             imageAreas = parseResult.getAreas();
+            document.setAreas(imageAreas);
+            // the areas are what the input describes
+            document.setModified(false);
 
             for (ImageArea area : imageAreas) {
-                area.setOnMouseClicked(
-                        e -> areaClickedOrAdded(area));
-                for (Circle c : area.getHandleCircles()) {
-                    c.setOnMousePressed(ev -> areaClickedOrAdded(area));
-                }
-                stackPane.getChildren().add(1, area);
+                installArea(area);
             }
-            htmlOutputText.setText(HtmlWriter.write(imageAreas));
+            document.getSearchIndex().rebuild(imageAreas);
+            updateSearch();
+            requestSnapshot();
+            updateOutput();
 
             if (!imageAreas.isEmpty()) {
                 markedImageArea = null;
@@ -382,10 +986,34 @@ public class ImageMapper extends Application {
             }
         } catch (Exception e) {
             e.printStackTrace();
+            parseWarnings = new ArrayList<>();
+            document.getSearchIndex().rebuild(imageAreas);
+            updateSearch();
+            // the areas are gone, later journal records must not be replayed onto the ones of the last snapshot
+            requestSnapshot();
             htmlInputText.setStyle("-fx-control-inner-background: orange; -fx-font-family: \"Courier New\";");
         }
     }
 
+    private static HtmlReader.ParseResult<ImageArea> readMap(String text) throws Exception {
+        String start = text.trim();
+        if (start.startsWith("{")) {
+            return HtmlReader.readJson(text, ImageArea::new);
+        }
+        return HtmlReader.read(text, ImageArea::new);
+    }
+
+    private void installArea(ImageArea area) {
+        areaLayer.getChildren().add(1, area);
+        indexArea(area);
+    }
+
+    private void removeAreaNodes(ImageArea area) {
+        stackPane.getChildren().removeAll(area.getHandleCircles());
+        areaLayer.getChildren().removeAll(area.getHandleCircles());
+        areaLayer.getChildren().remove(area);
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Command line entry point for working on map files without the editor.
+public class ImageMapperBatch {
+    public static final String VERSION = "1.0";
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+            System.exit(2);
+        }
+        try {
+            switch (args[0]) {
+                case "diff":
+                    System.exit(diff(args));
+                    break;
+                case "merge":
+                    System.exit(merge(args));
+                    break;
+                case "lint":
+                    System.exit(lint(args));
+                    break;
+                case "normalize":
+                    System.exit(normalize(args));
+                    break;
+                case "convert":
+                    System.exit(convert(args));
+                    break;
+                case "tile":
+                    System.exit(tile(args));
+                    break;
+                case "corpus":
+                    System.exit(corpus(args));
+                    break;
+                case "perf":
+                    System.exit(perf(args));
+                    break;
+                default:
+                    usage();
+                    System.exit(2);
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: ImageMapperBatch <command> [args]");
+        System.err.println("  diff <old.html> <new.html>");
+        System.err.println("  merge <base.html> <ours.html> <theirs.html> [out.html]");
+        System.err.println("  lint <file.html>...");
+        System.err.println("  normalize <out-dir> <file.html>...");
+        System.err.println("  convert [--cache <dir>] [--format html|plain|map|shared|json] <out-dir> <file.html>...");
+        System.err.println("  tile [--size <width>x<height>] [--binary] [--no-clip] <out-dir> <file.html>...");
+        System.err.println("  corpus [--seed <n>] <out-dir> [<areas>...]");
+        System.err.println("  perf [--baseline <file>] [--record] [--tolerance <percent>] [--passes <n>] <file.html|dir>...");
+    }
+
+    private static int diff(String[] args) throws Exception {
+        if (args.length != 3) {
+            usage();
+            return 2;
+        }
+        MapDiff.Result<PlainArea> result = MapDiff.diff(readAreas(args[1]), readAreas(args[2]));
+        for (MapDiff.Change<PlainArea> change : result.getChanges()) {
+            System.out.println(change);
+        }
+        return result.isEmpty() ? 0 : 1;
+    }
+
+    private static int merge(String[] args) throws Exception {
+        if (args.length != 4 && args.length != 5) {
+            usage();
+            return 2;
+        }
+        MapDiff.MergeResult<PlainArea> result = MapDiff.merge(readAreas(args[1]), readAreas(args[2]), readAreas(args[3]));
+        for (String conflict : result.getConflicts()) {
+            System.err.println(conflict);
+        }
+        String output = HtmlWriter.write(result.getAreas());
+        if (args.length == 5) {
+            Files.write(Paths.get(args[4]), output.getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(output);
+        }
+        return result.getConflicts().isEmpty() ? 0 : 1;
+    }
+
+    private static int lint(String[] args) {
+        if (args.length < 2) {
+            usage();
+            return 2;
+        }
+        List<String> files = Arrays.asList(args).subList(1, args.length);
+        List<List<String>> reports = files.parallelStream()
+                .map(file -> MapValidator.validateFile(Paths.get(file)))
+                .collect(Collectors.toList());
+        int problems = 0;
+        for (int i = 0; i < files.size(); i++) {
+            for (String line : reports.get(i)) {
+                System.out.println(files.get(i) + ": " + line);
+            }
+            problems += reports.get(i).size();
+        }
+        System.out.println(problems + " problem(s) in " + files.size() + " file(s)");
+        return problems == 0 ? 0 : 1;
+    }
+
+    private static int normalize(String[] args) throws Exception {
+        if (args.length < 3) {
+            usage();
+            return 2;
+        }
+        Path outDir = Files.createDirectories(Paths.get(args[1]));
+        List<String> failed = Arrays.asList(args).subList(2, args.length).parallelStream()
+                .filter(file -> {
+                    try {
+                        List<PlainArea> areas = readAreas(file);
+                        ContentNormalizer.ALL.apply(areas);
+                        Files.write(outDir.resolve(Paths.get(file).getFileName()),
+                                HtmlWriter.write(areas).getBytes(StandardCharsets.UTF_8));
+                        return false;
+                    } catch (Exception ex) {
+                        System.err.println(file + ": " + ex.getMessage());
+                        return true;
+                    }
+                })
+                .collect(Collectors.toList());
+        return failed.isEmpty() ? 0 : 1;
+    }
+
+    private static int convert(String[] args) throws Exception {
+        String format = "html";
+        ResultCache cache = null;
+        int i = 1;
+        while (i + 1 < args.length && args[i].startsWith("--")) {
+            if ("--cache".equals(args[i])) {
+                cache = new ResultCache(Paths.get(args[i + 1]));
+            } else if ("--format".equals(args[i])) {
+                format = args[i + 1].toLowerCase();
+            } else {
+                usage();
+                return 2;
+            }
+            i += 2;
+        }
+        if (args.length - i < 2 || !Arrays.asList("html", "plain", "map", "shared", "json").contains(format)) {
+            usage();
+            return 2;
+        }
+        Path outDir = Files.createDirectories(Paths.get(args[i]));
+        String outputFormat = format;
+        ResultCache resultCache = cache;
+        AtomicInteger cached = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        List<String> files = Arrays.asList(args).subList(i + 1, args.length);
+        files.parallelStream().forEach(file -> {
+            try {
+                Path path = Paths.get(file);
+                byte[] input = Files.readAllBytes(path);
+                String name = path.getFileName().toString();
+                name = name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name;
+                // everything the output depends on besides the input bytes, including how they are decoded, the map
+                // name comes from the file name
+                Charset charset = StandardCharsets.UTF_8;
+                String key = ResultCache.key(input, VERSION,
+                        "charset=" + charset.name() + "\nformat=" + outputFormat + "\nname=" + name);
+                String output = resultCache != null ? resultCache.get(key) : null;
+                if (output != null) {
+                    cached.incrementAndGet();
+                } else {
+                    output = convert(HtmlReader.read(new String(input, charset), PlainArea::new), name, outputFormat);
+                    if (resultCache != null) {
+                        resultCache.put(key, output);
+                    }
+                }
+                Files.write(outDir.resolve(path.getFileName()), output.getBytes(StandardCharsets.UTF_8));
+            } catch (Exception ex) {
+                System.err.println(file + ": " + ex.getMessage());
+                failed.incrementAndGet();
+            }
+        });
+        System.out.println(files.size() + " file(s), " + cached.get() + " from cache, " + failed.get() + " failed");
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    private static int tile(String[] args) throws Exception {
+        int tileWidth = 512;
+        int tileHeight = 512;
+        boolean binary = false;
+        boolean clip = true;
+        int i = 1;
+        while (i < args.length && args[i].startsWith("--")) {
+            if ("--size".equals(args[i]) && i + 1 < args.length && args[i + 1].matches("\\d+x\\d+")) {
+                String[] size = args[i + 1].split("x");
+                tileWidth = Integer.parseInt(size[0]);
+                tileHeight = Integer.parseInt(size[1]);
+                i += 2;
+            } else if ("--binary".equals(args[i])) {
+                binary = true;
+                i++;
+            } else if ("--no-clip".equals(args[i])) {
+                clip = false;
+                i++;
+            } else {
+                usage();
+                return 2;
+            }
+        }
+        if (args.length - i < 2) {
+            usage();
+            return 2;
+        }
+        Path outDir = Files.createDirectories(Paths.get(args[i]));
+        TileExporter exporter = new TileExporter(tileWidth, tileHeight, clip);
+        int failed = 0;
+        // every file is split in parallel already, so the files themselves are done one after the other
+        for (String file : Arrays.asList(args).subList(i + 1, args.length)) {
+            try {
+                Path path = Paths.get(file);
+                HtmlReader.ParseResult<PlainArea> parseResult = HtmlReader.read(HtmlReader.readFile(Paths.get(file)), PlainArea::new);
+                int[] size = null;
+                if (parseResult.getImgSrc() != null) {
+                    Path imagePath = path.toAbsolutePath().resolveSibling(parseResult.getImgSrc());
+                    if (Files.isRegularFile(imagePath)) {
+                        size = MapValidator.readImageSize(imagePath);
+                    }
+                }
+                String name = path.getFileName().toString();
+                name = name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name;
+                int tiles = exporter.export(CompactMap.of(parseResult.getImgSrc(), parseResult.getAreas()),
+                        size != null ? size[0] : 0, size != null ? size[1] : 0, outDir, name, binary);
+                System.out.println(file + ": " + tiles + " tile(s)");
+            } catch (Exception ex) {
+                System.err.println(file + ": " + ex.getMessage());
+                failed++;
+            }
+        }
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static int corpus(String[] args) throws Exception {
+        long seed = CorpusGenerator.DEFAULT_SEED;
+        int i = 1;
+        if (i + 1 < args.length && "--seed".equals(args[i]) && args[i + 1].matches("-?\\d+")) {
+            seed = Long.parseLong(args[i + 1]);
+            i += 2;
+        }
+        if (i >= args.length || args[i].startsWith("--")) {
+            usage();
+            return 2;
+        }
+        Path outDir = Paths.get(args[i]);
+        int[] sizes = CorpusGenerator.DEFAULT_SIZES;
+        if (args.length > i + 1) {
+            sizes = new int[args.length - i - 1];
+            for (int s = 0; s < sizes.length; s++) {
+                if (!args[i + 1 + s].matches("\\d+")) {
+                    usage();
+                    return 2;
+                }
+                sizes[s] = Integer.parseInt(args[i + 1 + s]);
+            }
+        }
+        for (int size : sizes) {
+            System.out.println(CorpusGenerator.generate(outDir, size, seed));
+        }
+        return 0;
+    }
+
+    private static int perf(String[] args) throws Exception {
+        Path baselinePath = null;
+        boolean record = false;
+        double tolerance = 0.25;
+        int passes = 3;
+        int i = 1;
+        while (i < args.length && args[i].startsWith("--")) {
+            if ("--baseline".equals(args[i]) && i + 1 < args.length) {
+                baselinePath = Paths.get(args[i + 1]);
+                i += 2;
+            } else if ("--record".equals(args[i])) {
+                record = true;
+                i++;
+            } else if ("--tolerance".equals(args[i]) && i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                tolerance = Integer.parseInt(args[i + 1]) / 100.0;
+                i += 2;
+            } else if ("--passes".equals(args[i]) && i + 1 < args.length && args[i + 1].matches("[1-9]\\d*")) {
+                passes = Integer.parseInt(args[i + 1]);
+                i += 2;
+            } else {
+                usage();
+                return 2;
+            }
+        }
+        if (i >= args.length || (record && baselinePath == null)) {
+            usage();
+            return 2;
+        }
+        List<Path> files = new ArrayList<>();
+        for (String arg : Arrays.asList(args).subList(i, args.length)) {
+            Path path = Paths.get(arg);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> listing = Files.list(path)) {
+                    // smallest first, a regression in the small maps shows up before the big ones are done
+                    files.addAll(listing.filter(p -> p.toString().endsWith(".html"))
+                            .sorted(Comparator.comparingLong(p -> p.toFile().length())).collect(Collectors.toList()));
+                }
+            } else {
+                files.add(path);
+            }
+        }
+
+        Map<String, Double> baseline = baselinePath != null ? PerformanceSuite.readBaseline(baselinePath) : new TreeMap<>();
+        PerformanceSuite suite = new PerformanceSuite();
+        if (!files.isEmpty()) {
+            suite.warmUp(files.get(0));
+        }
+        // every file is run several times and the best pass counts, one slow pass is usually the machine, not the code
+        for (Path file : files) {
+            for (int pass = 0; pass < passes; pass++) {
+                suite.run(file);
+            }
+        }
+        for (Map.Entry<String, Double> entry : suite.getResults().entrySet()) {
+            Double expected = baseline.get(entry.getKey());
+            System.out.println(String.format("%-28s %16s%s", entry.getKey(), PerformanceSuite.format(entry.getValue()),
+                    expected != null ? String.format(" %+7.1f%%", (entry.getValue() / expected - 1) * 100) : ""));
+        }
+        if (record) {
+            baseline.putAll(suite.getResults());
+            PerformanceSuite.writeBaseline(baselinePath, baseline);
+            return 0;
+        }
+        List<String> regressions = PerformanceSuite.compare(suite.getResults(), baseline, tolerance);
+        for (String regression : regressions) {
+            System.err.println("Regression " + regression);
+        }
+        return regressions.isEmpty() ? 0 : 1;
+    }
+
+    private static String convert(HtmlReader.ParseResult<PlainArea> parseResult, String name, String format) {
+        if ("json".equals(format)) {
+            return HtmlWriter.writeJson(parseResult.getImgSrc(), parseResult.getAreas());
+        }
+        MapTemplate.Values map = new MapTemplate.Values();
+        map.name = name;
+        map.src = parseResult.getImgSrc() != null ? parseResult.getImgSrc() : "";
+        MapEmitter emitter = "plain".equals(format) ? TemplateEmitter.PLAIN
+                : "map".equals(format) ? TemplateEmitter.MAP
+                : "shared".equals(format) ? TemplateEmitter.SHARED_CONTENT : TemplateEmitter.BOOTSTRAP;
+        return HtmlWriter.write(parseResult.getAreas(), emitter, map);
+    }
+
+    static List<PlainArea> readAreas(String path) throws Exception {
+        return HtmlReader.read(HtmlReader.readFile(Paths.get(path)), PlainArea::new).getAreas();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+// Rectangle and attributes of one area, independent of how it is shown. ImageArea is the node edited on the image,
+// PlainArea holds the same values without JavaFX for the command line and anything else that runs headless.
+public interface MapArea {
+
+    // Creates areas while reading a map, so readers work for both kinds, e.g. HtmlReader.read(html, PlainArea::new)
+    interface Factory<A extends MapArea> {
+        A create(double x, double y, double width, double height, String title, String alt, String dataContent, String onClick);
+    }
+
+    double getX();
+
+    double getY();
+
+    double getWidth();
+
+    double getHeight();
+
+    String getTitle();
+
+    void setTitle(String title);
+
+    String getAlt();
+
+    void setAlt(String alt);
+
+    String getDataContent();
+
+    void setDataContent(String dataContent);
+
+    String getOnClick();
+
+    void setOnClick(String onClick);
+
+    default String getCoordsString() {
+        return String.format("%.0f,%.0f,%.0f,%.0f", getX(), getY(), getX() + getWidth(), getY() + getHeight());
+    }
+}
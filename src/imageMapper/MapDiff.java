@@ -0,0 +1,355 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Structural diff of two image maps. Areas are matched independent of their order, first by hashing geometry and
+// attributes, then through a spatial index for areas that were moved and edited at the same time.
+public class MapDiff {
+    public enum ChangeType {ADDED, REMOVED, MOVED, EDITED}
+
+    public static class Change<A extends MapArea> {
+        private final ChangeType type;
+        private final A oldArea;
+        private final A newArea;
+
+        Change(ChangeType type, A oldArea, A newArea) {
+            this.type = type;
+            this.oldArea = oldArea;
+            this.newArea = newArea;
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        public A getOldArea() {
+            return oldArea;
+        }
+
+        public A getNewArea() {
+            return newArea;
+        }
+
+        @Override
+        public String toString() {
+            switch (type) {
+                case ADDED:
+                    return "ADDED   " + describe(newArea);
+                case REMOVED:
+                    return "REMOVED " + describe(oldArea);
+                case MOVED:
+                    return "MOVED   " + oldArea.getCoordsString() + " -> " + describe(newArea);
+                default:
+                    return "EDITED  " + (sameGeometry(oldArea, newArea) ? "" : oldArea.getCoordsString() + " -> ")
+                            + describe(newArea);
+            }
+        }
+    }
+
+    public static class Result<A extends MapArea> {
+        private final List<Change<A>> changes;
+        // old area -> matching new area, for unchanged areas as well
+        private final Map<A, A> matches;
+
+        Result(List<Change<A>> changes, Map<A, A> matches) {
+            this.changes = changes;
+            this.matches = matches;
+        }
+
+        public List<Change<A>> getChanges() {
+            return changes;
+        }
+
+        public A getMatch(A oldArea) {
+            return matches.get(oldArea);
+        }
+
+        public boolean isEmpty() {
+            return changes.isEmpty();
+        }
+    }
+
+    public static class MergeResult<A extends MapArea> {
+        private final List<A> areas;
+        private final List<String> conflicts;
+
+        MergeResult(List<A> areas, List<String> conflicts) {
+            this.areas = areas;
+            this.conflicts = conflicts;
+        }
+
+        public List<A> getAreas() {
+            return areas;
+        }
+
+        public List<String> getConflicts() {
+            return conflicts;
+        }
+    }
+
+    public static Result<PlainArea> diff(String oldHtml, String newHtml) throws Exception {
+        return diff(HtmlReader.read(oldHtml, PlainArea::new).getAreas(), HtmlReader.read(newHtml, PlainArea::new).getAreas());
+    }
+
+    public static <A extends MapArea> Result<A> diff(List<A> oldAreas, List<A> newAreas) {
+        Map<A, A> matches = new IdentityHashMap<>();
+        Map<A, ChangeType> types = new IdentityHashMap<>();
+        Set<Signature<A>> unmatchedOld = new LinkedHashSet<>(oldAreas.size() * 2);
+        for (A area : oldAreas) {
+            unmatchedOld.add(new Signature<>(area));
+        }
+        List<Signature<A>> unmatchedNew = new ArrayList<>();
+
+        // 1. identical areas
+        Map<Key, Deque<Signature<A>>> byKey = group(unmatchedOld, true, true);
+        for (A area : newAreas) {
+            Signature<A> signature = new Signature<>(area);
+            Signature<A> match = poll(byKey, new Key(signature, true, true));
+            if (match != null) {
+                matches.put(match.area, area);
+                unmatchedOld.remove(match);
+            } else {
+                unmatchedNew.add(signature);
+            }
+        }
+
+        // 2. moved areas, where the attributes identify exactly one area on both sides
+        Map<Key, Deque<Signature<A>>> oldByAttributes = group(unmatchedOld, false, true);
+        Map<Key, Deque<Signature<A>>> newByAttributes = group(unmatchedNew, false, true);
+        for (Map.Entry<Key, Deque<Signature<A>>> entry : newByAttributes.entrySet()) {
+            Deque<Signature<A>> candidates = oldByAttributes.get(entry.getKey());
+            if (candidates != null && candidates.size() == 1 && entry.getValue().size() == 1) {
+                match(candidates.peek(), entry.getValue().peek(), ChangeType.MOVED, matches, types, unmatchedOld);
+            }
+        }
+        unmatchedNew.removeIf(signature -> types.containsKey(signature.area));
+
+        // 3. edited areas, which kept their geometry
+        Map<Key, Deque<Signature<A>>> oldByGeometry = group(unmatchedOld, true, false);
+        for (Signature<A> signature : unmatchedNew) {
+            Signature<A> match = poll(oldByGeometry, new Key(signature, true, false));
+            if (match != null) {
+                match(match, signature, ChangeType.EDITED, matches, types, unmatchedOld);
+            }
+        }
+        unmatchedNew.removeIf(signature -> types.containsKey(signature.area));
+
+        // 4. moved and edited areas, matched to the nearest remaining area
+        if (!unmatchedOld.isEmpty() && !unmatchedNew.isEmpty()) {
+            double cellSize = 0;
+            for (Signature<A> signature : unmatchedOld) {
+                cellSize += Math.max(signature.x2 - signature.x1, signature.y2 - signature.y1);
+            }
+            SpatialIndex<Signature<A>> index = new SpatialIndex<>(Math.max(cellSize / unmatchedOld.size(), 1));
+            for (Signature<A> signature : unmatchedOld) {
+                index.insert(signature, signature.x1, signature.y1, signature.x2, signature.y2);
+            }
+            for (Signature<A> signature : unmatchedNew) {
+                double maxDistance = Math.max(signature.x2 - signature.x1, signature.y2 - signature.y1);
+                Signature<A> match = index.nearest((signature.x1 + signature.x2) / 2.0, (signature.y1 + signature.y2) / 2.0,
+                        maxDistance);
+                if (match != null) {
+                    index.remove(match);
+                    match(match, signature, match.sameAttributes(signature) ? ChangeType.MOVED : ChangeType.EDITED,
+                            matches, types, unmatchedOld);
+                }
+            }
+            unmatchedNew.removeIf(signature -> types.containsKey(signature.area));
+        }
+
+        List<Change<A>> changes = new ArrayList<>();
+        for (A area : oldAreas) {
+            A match = matches.get(area);
+            if (match == null) {
+                changes.add(new Change<>(ChangeType.REMOVED, area, null));
+            } else if (types.containsKey(match)) {
+                changes.add(new Change<>(types.get(match), area, match));
+            }
+        }
+        for (Signature<A> signature : unmatchedNew) {
+            changes.add(new Change<>(ChangeType.ADDED, null, signature.area));
+        }
+        return new Result<>(changes, matches);
+    }
+
+    // Three way merge of two edited versions of the same base map. Conflicting edits keep our version.
+    public static <A extends MapArea> MergeResult<A> merge(List<A> base, List<A> ours, List<A> theirs) {
+        Result<A> ourDiff = diff(base, ours);
+        Result<A> theirDiff = diff(base, theirs);
+        Map<A, A> theirReplacement = new IdentityHashMap<>();
+        Set<A> ourRemovals = new HashSet<>();
+        List<String> conflicts = new ArrayList<>();
+
+        for (A b : base) {
+            A o = ourDiff.getMatch(b);
+            A t = theirDiff.getMatch(b);
+            boolean ourChange = o == null || !sameGeometry(b, o) || !sameAttributes(b, o);
+            boolean theirChange = t == null || !sameGeometry(b, t) || !sameAttributes(b, t);
+            if (!theirChange) {
+                continue;
+            }
+            if (!ourChange) {
+                if (t == null) {
+                    ourRemovals.add(o);
+                } else {
+                    theirReplacement.put(o, t);
+                }
+            } else if (o == null && t == null) {
+                // removed on both sides
+            } else if (o == null || t == null || !sameGeometry(o, t) || !sameAttributes(o, t)) {
+                conflicts.add("CONFLICT " + describe(b) + ": ours " + (o == null ? "removed" : describe(o))
+                        + ", theirs " + (t == null ? "removed" : describe(t)));
+            }
+        }
+
+        List<A> merged = new ArrayList<>();
+        Set<Key> ourAdditions = new HashSet<>();
+        Set<A> ourMatched = new HashSet<>(ourDiff.matches.values());
+        for (A o : ours) {
+            if (ourRemovals.contains(o)) {
+                continue;
+            }
+            merged.add(theirReplacement.getOrDefault(o, o));
+            if (!ourMatched.contains(o)) {
+                ourAdditions.add(new Key(new Signature<>(o), true, true));
+            }
+        }
+        Set<A> theirMatched = new HashSet<>(theirDiff.matches.values());
+        for (A t : theirs) {
+            if (!theirMatched.contains(t) && !ourAdditions.contains(new Key(new Signature<>(t), true, true))) {
+                merged.add(t);
+            }
+        }
+        return new MergeResult<>(merged, conflicts);
+    }
+
+    static boolean sameGeometry(MapArea a, MapArea b) {
+        return Math.round(a.getX()) == Math.round(b.getX()) && Math.round(a.getY()) == Math.round(b.getY())
+                && Math.round(a.getX() + a.getWidth()) == Math.round(b.getX() + b.getWidth())
+                && Math.round(a.getY() + a.getHeight()) == Math.round(b.getY() + b.getHeight());
+    }
+
+    static boolean sameAttributes(MapArea a, MapArea b) {
+        return a.getTitle().equals(b.getTitle()) && a.getAlt().equals(b.getAlt())
+                && a.getDataContent().equals(b.getDataContent()) && a.getOnClick().equals(b.getOnClick());
+    }
+
+    private static <A extends MapArea> void match(Signature<A> oldArea, Signature<A> newArea, ChangeType type,
+                                                  Map<A, A> matches, Map<A, ChangeType> types, Set<Signature<A>> unmatchedOld) {
+        matches.put(oldArea.area, newArea.area);
+        types.put(newArea.area, type);
+        unmatchedOld.remove(oldArea);
+    }
+
+    private static <A extends MapArea> Map<Key, Deque<Signature<A>>> group(Iterable<Signature<A>> signatures,
+                                                                            boolean geometry, boolean attributes) {
+        Map<Key, Deque<Signature<A>>> groups = new HashMap<>();
+        for (Signature<A> signature : signatures) {
+            groups.computeIfAbsent(new Key(signature, geometry, attributes), k -> new ArrayDeque<>()).add(signature);
+        }
+        return groups;
+    }
+
+    private static <A extends MapArea> Signature<A> poll(Map<Key, Deque<Signature<A>>> groups, Key key) {
+        Deque<Signature<A>> candidates = groups.get(key);
+        return candidates != null ? candidates.poll() : null;
+    }
+
+    // Values of an area read once, so the matching passes don't go through the JavaFX properties again.
+    private static class Signature<A extends MapArea> {
+        final A area;
+        final long x1;
+        final long y1;
+        final long x2;
+        final long y2;
+        final String title;
+        final String alt;
+        final String dataContent;
+        final String onClick;
+        final int geometryHash;
+        final int attributeHash;
+
+        Signature(A area) {
+            this.area = area;
+            x1 = Math.round(area.getX());
+            y1 = Math.round(area.getY());
+            x2 = Math.round(area.getX() + area.getWidth());
+            y2 = Math.round(area.getY() + area.getHeight());
+            title = area.getTitle();
+            alt = area.getAlt();
+            dataContent = area.getDataContent();
+            onClick = area.getOnClick();
+            geometryHash = Arrays.hashCode(new long[]{x1, y1, x2, y2});
+            attributeHash = Arrays.hashCode(new String[]{title, alt, dataContent, onClick});
+        }
+
+        boolean sameGeometry(Signature<?> other) {
+            return x1 == other.x1 && y1 == other.y1 && x2 == other.x2 && y2 == other.y2;
+        }
+
+        boolean sameAttributes(Signature<?> other) {
+            return attributeHash == other.attributeHash && title.equals(other.title) && alt.equals(other.alt)
+                    && dataContent.equals(other.dataContent) && onClick.equals(other.onClick);
+        }
+    }
+
+    private static class Key {
+        private final Signature<?> signature;
+        private final boolean geometry;
+        private final boolean attributes;
+
+        Key(Signature<?> signature, boolean geometry, boolean attributes) {
+            this.signature = signature;
+            this.geometry = geometry;
+            this.attributes = attributes;
+        }
+
+        @Override
+        public int hashCode() {
+            return (geometry ? signature.geometryHash * 31 : 0) + (attributes ? signature.attributeHash : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return geometry == other.geometry && attributes == other.attributes
+                    && (!geometry || signature.sameGeometry(other.signature))
+                    && (!attributes || signature.sameAttributes(other.signature));
+        }
+    }
+
+    private static String describe(MapArea area) {
+        String name = !area.getTitle().isEmpty() ? area.getTitle() : area.getAlt();
+        return area.getCoordsString() + (name.isEmpty() ? "" : " \"" + name + "\"");
+    }
+}
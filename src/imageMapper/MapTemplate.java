@@ -0,0 +1,295 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+// Output template, compiled once into a sequence of literal chunks and field slots.
+//   {field}             escaped value, onclick and extra are inserted unescaped
+//   {field|raw}         unescaped value
+//   {field|xml}         value with & < > " escaped, for SVG text
+//   {?field}...{/field} only rendered if the field is not empty
+//   {{                  a literal {
+public class MapTemplate {
+    public enum Field {
+        COORDS("coords"), X("x"), Y("y"), X2("x2"), Y2("y2"), WIDTH("width"), HEIGHT("height"), INDEX("index"),
+        TITLE("title"), ALT("alt"), CONTENT("content"), ONCLICK("onclick"), EXTRA("extra"),
+        NAME("name"), SRC("src"), IMAGE_WIDTH("imageWidth"), IMAGE_HEIGHT("imageHeight");
+
+        private final String key;
+
+        Field(String key) {
+            this.key = key;
+        }
+
+        static Field of(String key) {
+            for (Field field : values()) {
+                if (field.key.equals(key)) {
+                    return field;
+                }
+            }
+            throw new IllegalArgumentException("Unknown template field {" + key + "}.");
+        }
+    }
+
+    private static final int LITERAL = 0;
+    private static final int ESCAPED = 1;
+    private static final int RAW = 2;
+    private static final int XML = 3;
+    private static final int SECTION = 4;
+
+    // Values of the area currently rendered and of the whole map. Reused for every area.
+    public static class Values {
+        public int x;
+        public int y;
+        public int x2;
+        public int y2;
+        public int index;
+        public String title = "";
+        public String alt = "";
+        public String content = "";
+        public String onclick = "";
+        public CharSequence extra = "";
+        public String name = "";
+        public String src = "";
+        public int imageWidth;
+        public int imageHeight;
+
+        public Values setArea(MapArea area, int index) {
+            this.x = (int) Math.round(area.getX());
+            this.y = (int) Math.round(area.getY());
+            this.x2 = (int) Math.round(area.getX() + area.getWidth());
+            this.y2 = (int) Math.round(area.getY() + area.getHeight());
+            this.index = index;
+            this.title = area.getTitle();
+            this.alt = area.getAlt();
+            this.content = area.getDataContent();
+            this.onclick = area.getOnClick();
+            this.extra = "";
+            return this;
+        }
+
+        CharSequence text(Field field) {
+            switch (field) {
+                case TITLE:
+                    return title;
+                case ALT:
+                    return alt;
+                case CONTENT:
+                    return content;
+                case ONCLICK:
+                    return onclick;
+                case EXTRA:
+                    return extra;
+                case NAME:
+                    return name;
+                case SRC:
+                    return src;
+                default:
+                    return null;
+            }
+        }
+
+        void append(StringBuilder out, Field field) {
+            switch (field) {
+                case COORDS:
+                    out.append(x).append(',').append(y).append(',').append(x2).append(',').append(y2);
+                    break;
+                case X:
+                    out.append(x);
+                    break;
+                case Y:
+                    out.append(y);
+                    break;
+                case X2:
+                    out.append(x2);
+                    break;
+                case Y2:
+                    out.append(y2);
+                    break;
+                case WIDTH:
+                    out.append(x2 - x);
+                    break;
+                case HEIGHT:
+                    out.append(y2 - y);
+                    break;
+                case INDEX:
+                    out.append(index);
+                    break;
+                case IMAGE_WIDTH:
+                    out.append(imageWidth);
+                    break;
+                case IMAGE_HEIGHT:
+                    out.append(imageHeight);
+                    break;
+                default:
+                    out.append(text(field));
+                    break;
+            }
+        }
+    }
+
+    private final int[] kinds;
+    private final String[] literals;
+    private final Field[] fields;
+    // for sections: index of the first op after the section
+    private final int[] ends;
+
+    private MapTemplate(int[] kinds, String[] literals, Field[] fields, int[] ends) {
+        this.kinds = kinds;
+        this.literals = literals;
+        this.fields = fields;
+        this.ends = ends;
+    }
+
+    public static MapTemplate compile(String source) {
+        List<Integer> kinds = new ArrayList<>();
+        List<String> literals = new ArrayList<>();
+        List<Field> fields = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        Deque<Integer> openSections = new ArrayDeque<>();
+        StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        while (pos < source.length()) {
+            char c = source.charAt(pos);
+            if (c != '{') {
+                literal.append(c);
+                pos++;
+                continue;
+            }
+            if (source.startsWith("{{", pos)) {
+                literal.append('{');
+                pos += 2;
+                continue;
+            }
+            int close = source.indexOf('}', pos);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed '{' at position " + pos + ".");
+            }
+            String tag = source.substring(pos + 1, close);
+            pos = close + 1;
+            if (literal.length() > 0) {
+                add(kinds, literals, fields, ends, LITERAL, literal.toString(), null);
+                literal.setLength(0);
+            }
+            if (tag.startsWith("?")) {
+                openSections.push(kinds.size());
+                add(kinds, literals, fields, ends, SECTION, null, Field.of(tag.substring(1)));
+            } else if (tag.startsWith("/")) {
+                if (openSections.isEmpty() || fields.get(openSections.peek()) != Field.of(tag.substring(1))) {
+                    throw new IllegalArgumentException("Unexpected {" + tag + "}.");
+                }
+                ends.set(openSections.pop(), kinds.size());
+            } else {
+                String[] parts = tag.split("\\|", 2);
+                Field field = Field.of(parts[0]);
+                int kind;
+                if (parts.length == 1) {
+                    kind = field == Field.ONCLICK || field == Field.EXTRA ? RAW : ESCAPED;
+                } else if ("raw".equals(parts[1])) {
+                    kind = RAW;
+                } else if ("xml".equals(parts[1])) {
+                    kind = XML;
+                } else {
+                    throw new IllegalArgumentException("Unknown modifier in {" + tag + "}.");
+                }
+                add(kinds, literals, fields, ends, kind, null, field);
+            }
+        }
+        if (!openSections.isEmpty()) {
+            throw new IllegalArgumentException("Section {?" + fields.get(openSections.peek()).key + "} is not closed.");
+        }
+        if (literal.length() > 0) {
+            add(kinds, literals, fields, ends, LITERAL, literal.toString(), null);
+        }
+        return new MapTemplate(kinds.stream().mapToInt(Integer::intValue).toArray(), literals.toArray(new String[0]),
+                fields.toArray(new Field[0]), ends.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static void add(List<Integer> kinds, List<String> literals, List<Field> fields, List<Integer> ends,
+                            int kind, String literal, Field field) {
+        kinds.add(kind);
+        literals.add(literal);
+        fields.add(field);
+        ends.add(0);
+    }
+
+    public void render(StringBuilder out, Values values) {
+        int i = 0;
+        while (i < kinds.length) {
+            switch (kinds[i]) {
+                case LITERAL:
+                    out.append(literals[i]);
+                    break;
+                case ESCAPED:
+                    CharSequence text = values.text(fields[i]);
+                    if (text != null) {
+                        out.append(HtmlWriter.escapeHtmlString(text.toString()));
+                    } else {
+                        values.append(out, fields[i]);
+                    }
+                    break;
+                case RAW:
+                    values.append(out, fields[i]);
+                    break;
+                case XML:
+                    CharSequence xml = values.text(fields[i]);
+                    if (xml != null) {
+                        appendXml(out, xml);
+                    } else {
+                        values.append(out, fields[i]);
+                    }
+                    break;
+                case SECTION:
+                    CharSequence value = values.text(fields[i]);
+                    if (value != null && value.length() == 0) {
+                        i = ends[i];
+                        continue;
+                    }
+                    break;
+            }
+            i++;
+        }
+    }
+
+    private static void appendXml(StringBuilder out, CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                default:
+                    out.append(c);
+                    break;
+            }
+        }
+    }
+}
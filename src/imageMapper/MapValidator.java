@@ -0,0 +1,229 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Quality checks for a parsed map: overlapping and duplicate areas, areas outside the image and missing alt texts.
+public class MapValidator {
+    public enum ProblemType {OVERLAP, DUPLICATE, OUT_OF_BOUNDS, EMPTY_ALT}
+
+    public static class Problem<A extends MapArea> {
+        private final ProblemType type;
+        private final A area;
+        private final A other;
+
+        Problem(ProblemType type, A area, A other) {
+            this.type = type;
+            this.area = area;
+            this.other = other;
+        }
+
+        public ProblemType getType() {
+            return type;
+        }
+
+        public A getArea() {
+            return area;
+        }
+
+        public A getOther() {
+            return other;
+        }
+
+        @Override
+        public String toString() {
+            switch (type) {
+                case OVERLAP:
+                    return "Area " + area.getCoordsString() + " overlaps " + other.getCoordsString();
+                case DUPLICATE:
+                    return "Area " + area.getCoordsString() + " has the same coordinates as another area";
+                case OUT_OF_BOUNDS:
+                    return "Area " + area.getCoordsString() + " lies outside of the image";
+                default:
+                    return "Area " + area.getCoordsString() + " has no alt text";
+            }
+        }
+    }
+
+    // imageWidth and imageHeight <= 0 skip the bounds check. All checks use the coordinates rounded to whole pixels, as
+    // they are written out.
+    public static <A extends MapArea> List<Problem<A>> validate(List<A> areas, double imageWidth, double imageHeight) {
+        List<Problem<A>> problems = new ArrayList<>();
+        int n = areas.size();
+        long[] x1 = new long[n];
+        long[] y1 = new long[n];
+        long[] x2 = new long[n];
+        long[] y2 = new long[n];
+        Map<String, A> byCoords = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            A area = areas.get(i);
+            x1[i] = Math.round(area.getX());
+            y1[i] = Math.round(area.getY());
+            x2[i] = Math.round(area.getX() + area.getWidth());
+            y2[i] = Math.round(area.getY() + area.getHeight());
+            if (area.getAlt().trim().isEmpty()) {
+                problems.add(new Problem<>(ProblemType.EMPTY_ALT, area, null));
+            }
+            if (imageWidth > 0 && imageHeight > 0 && (x1[i] < 0 || y1[i] < 0 || x2[i] > imageWidth || y2[i] > imageHeight)) {
+                problems.add(new Problem<>(ProblemType.OUT_OF_BOUNDS, area, null));
+            }
+            A duplicate = byCoords.putIfAbsent(x1[i] + "," + y1[i] + "," + x2[i] + "," + y2[i], area);
+            if (duplicate != null) {
+                problems.add(new Problem<>(ProblemType.DUPLICATE, area, duplicate));
+            }
+        }
+
+        // Sweep a vertical line from left to right. The areas the line currently crosses are kept in a max tree over
+        // all areas ordered by their top edge, holding the bottom edge of the active ones. An overlap is an active area
+        // in the prefix starting above the bottom of the current one whose bottom lies below its top, and subtrees
+        // without such a bottom are skipped, so every query costs O(log n) per reported overlap.
+        Integer[] byTop = sortedBy(n, y1);
+        int[] rank = new int[n];
+        long[] tops = new long[n];
+        for (int r = 0; r < n; r++) {
+            rank[byTop[r]] = r;
+            tops[r] = y1[byTop[r]];
+        }
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        long[] bottoms = new long[size * 2];
+        Arrays.fill(bottoms, Long.MIN_VALUE);
+        PriorityQueue<Integer> byRight = new PriorityQueue<>(Comparator.comparingLong(i -> x2[i]));
+        List<Integer> found = new ArrayList<>();
+        for (int i : sortedBy(n, x1)) {
+            while (!byRight.isEmpty() && x2[byRight.peek()] <= x1[i]) {
+                set(bottoms, size + rank[byRight.poll()], Long.MIN_VALUE);
+            }
+            found.clear();
+            collect(bottoms, 1, 0, size, firstAtOrAbove(tops, y2[i]), y1[i], found);
+            for (int r : found) {
+                int j = byTop[r];
+                if (!(x1[i] == x1[j] && y1[i] == y1[j] && x2[i] == x2[j] && y2[i] == y2[j])) {
+                    problems.add(new Problem<>(ProblemType.OVERLAP, areas.get(Math.min(i, j)), areas.get(Math.max(i, j))));
+                }
+            }
+            set(bottoms, size + rank[i], y2[i]);
+            byRight.add(i);
+        }
+        return problems;
+    }
+
+    private static Integer[] sortedBy(int n, long[] keys) {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> keys[i]).thenComparingInt(i -> i));
+        return order;
+    }
+
+    // number of sorted values below limit
+    private static int firstAtOrAbove(long[] sorted, long limit) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < limit) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void set(long[] tree, int leaf, long value) {
+        tree[leaf] = value;
+        for (int node = leaf >> 1; node >= 1; node >>= 1) {
+            tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    // Adds the leaves below end whose value is greater than minimum, node covers the leaves [from, to).
+    private static void collect(long[] tree, int node, int from, int to, int end, long minimum, List<Integer> found) {
+        if (from >= end || tree[node] <= minimum) {
+            return;
+        }
+        if (to - from == 1) {
+            found.add(from);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        collect(tree, 2 * node, from, mid, end, minimum, found);
+        collect(tree, 2 * node + 1, mid, to, end, minimum, found);
+    }
+
+    // Reads only the image header, returns {width, height} or null if the format is unknown.
+    public static int[] readImageSize(Path imagePath) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(imagePath.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Report lines for one map file: parse corrections followed by the validation problems.
+    public static List<String> validateFile(Path htmlPath) {
+        List<String> report = new ArrayList<>();
+        try {
+            HtmlReader.ParseResult<PlainArea> parseResult = HtmlReader.read(HtmlReader.readFile(htmlPath), PlainArea::new);
+            report.addAll(parseResult.getWarnings());
+            int[] size = null;
+            if (parseResult.getImgSrc() != null) {
+                Path imagePath = htmlPath.toAbsolutePath().resolveSibling(parseResult.getImgSrc());
+                if (imagePath.toFile().isFile()) {
+                    size = readImageSize(imagePath);
+                } else {
+                    report.add("Image " + parseResult.getImgSrc() + " not found, bounds not checked");
+                }
+            }
+            for (Problem<PlainArea> problem : validate(parseResult.getAreas(), size != null ? size[0] : 0, size != null ? size[1] : 0)) {
+                report.add(problem.toString());
+            }
+        } catch (Exception ex) {
+            report.add("Could not be parsed: " + ex.getMessage());
+        }
+        return report;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Shared heap budget of the open documents. When it is exceeded the least recently shown documents release their
+// decoded images first, and only if that is not enough they are parked as compact maps.
+public class MemoryBudget {
+    private final long limit;
+    // access order, the least recently shown document comes first
+    private final Map<Document, Boolean> documents = new LinkedHashMap<>(16, 0.75f, true);
+
+    public MemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    public void touch(Document document) {
+        documents.put(document, Boolean.TRUE);
+    }
+
+    public void remove(Document document) {
+        documents.remove(document);
+    }
+
+    public long used() {
+        long used = 0;
+        for (Document document : documents.keySet()) {
+            used += document.imageBytes() + document.modelBytes();
+        }
+        return used;
+    }
+
+    // The active document is never released.
+    public void enforce(Document active) {
+        long used = used();
+        for (Document document : documents.keySet()) {
+            if (used <= limit) {
+                return;
+            }
+            if (document != active && document.getImage() != null) {
+                used -= document.imageBytes();
+                document.releaseImage();
+            }
+        }
+        for (Document document : documents.keySet()) {
+            if (used <= limit) {
+                return;
+            }
+            if (document != active && !document.isParked()) {
+                used -= document.modelBytes();
+                document.park();
+                used += document.modelBytes();
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+// Runs the parse, edit, serialize and batch paths over a corpus file and compares the numbers with a recorded baseline.
+// Throughputs are areas (or edits) per second, heap is bytes per parsed area. Baselines only make sense on the machine
+// they were recorded on.
+public class PerformanceSuite {
+    private static final int EDITS = 10000;
+    // areas rendered per run of the edit step, every edit renders the whole map like the editor does
+    private static final int EDIT_OUTPUT_AREAS = 2000000;
+    private static final String HEAP = "heap";
+    private static final long MIN_TIME = 500_000_000L;
+    private static final int MAX_RUNS = 200;
+
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    private final Map<String, Double> results = new LinkedHashMap<>();
+
+    public Map<String, Double> getResults() {
+        return results;
+    }
+
+    // One untimed pass, so the first file isn't measured with a cold JVM.
+    public void warmUp(Path htmlPath) throws Exception {
+        Map<String, Double> measured = new LinkedHashMap<>(results);
+        run(htmlPath);
+        results.clear();
+        results.putAll(measured);
+    }
+
+    public void run(Path htmlPath) throws Exception {
+        String name = htmlPath.getFileName().toString();
+        String prefix = (name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name) + ".";
+        String input = HtmlReader.readFile(htmlPath);
+
+        long before = usedHeap();
+        HtmlReader.ParseResult<PlainArea> parsed = HtmlReader.read(input, PlainArea::new);
+        List<PlainArea> areas = parsed.getAreas();
+        long after = usedHeap();
+        int n = Math.max(1, areas.size());
+        record(prefix + HEAP, (double) Math.max(0, after - before) / n);
+        // big maps take long enough per run to be stable
+        int repeats = Math.max(1, Math.min(5, 200000 / n));
+
+        measure(prefix + "parse", n, repeats, () -> HtmlReader.read(input, PlainArea::new));
+
+        AreaSearchIndex<PlainArea> searchIndex = new AreaSearchIndex<>();
+        SpatialIndex<PlainArea> areaIndex = new SpatialIndex<>(64);
+        measure(prefix + "index", n, repeats, () -> {
+            searchIndex.rebuild(areas);
+            areaIndex.clear();
+            for (PlainArea area : areas) {
+                areaIndex.insert(area, area.getX(), area.getY(), area.getX() + area.getWidth(), area.getY() + area.getHeight());
+            }
+        });
+
+        if (!areas.isEmpty()) {
+            measureEdits(prefix, parsed.getImgSrc(), areas, searchIndex, areaIndex, repeats);
+        }
+        measure(prefix + "search", 100, repeats, () -> {
+            for (String query : new String[]{"straße", "gate 4", "東京", "map.show", "info exit"}) {
+                for (int i = 0; i < 20; i++) {
+                    searchIndex.search(query);
+                }
+            }
+        });
+
+        measure(prefix + "write", n, repeats, () -> HtmlWriter.write(areas));
+        measure(prefix + "json", n, repeats, () -> HtmlWriter.writeJson(parsed.getImgSrc(), areas));
+        measure(prefix + "binary", n, repeats, () -> HtmlWriter.writeBinary(parsed.getImgSrc(), areas));
+        measure(prefix + "park", n, repeats, () -> CompactMap.of(parsed.getImgSrc(), areas).toAreas(PlainArea::new));
+
+        int[] size = parsed.getImgSrc() != null ? imageSize(htmlPath.toAbsolutePath().resolveSibling(parsed.getImgSrc())) : null;
+        int width = size != null ? size[0] : 0;
+        int height = size != null ? size[1] : 0;
+        measure(prefix + "lint", n, repeats, () -> MapValidator.validate(areas, width, height));
+        TileExporter exporter = new TileExporter(512, 512, true);
+        measure(prefix + "tile", n, repeats, () -> exporter.partition(CompactMap.of(parsed.getImgSrc(), areas), width, height));
+        // like ContentNormalizer.apply, without changing the areas
+        measure(prefix + "normalize", n, repeats, () -> areas.parallelStream()
+                .forEach(area -> ContentNormalizer.ALL.normalize(area.getDataContent())));
+    }
+
+    // The editor's path for a typed attribute or a moved area, through the same EditPipeline: reindex, journal record
+    // (compacted like in the editor), sorted search results, preview and the output of the whole map. Only the JavaFX
+    // text and style updates are left out.
+    private void measureEdits(String prefix, String imgSrc, List<PlainArea> areas, AreaSearchIndex<PlainArea> searchIndex,
+                              SpatialIndex<PlainArea> areaIndex, int repeats) throws Exception {
+        int edits = Math.max(10, Math.min(EDITS, EDIT_OUTPUT_AREAS / areas.size()));
+        Path directory = Files.createTempDirectory("imagemapper-session");
+        Path snapshotPath = directory.resolve("ImageMapper.session");
+        Path journalPath = directory.resolve("ImageMapper.journal");
+        SessionStore session = new SessionStore(snapshotPath, journalPath);
+        PreviewServer previewServer = PreviewServer.start(0);
+        try {
+            session.load();
+            int[] areaIds = new int[areas.size()];
+            for (int i = 0; i < areaIds.length; i++) {
+                areaIds[i] = i + 1;
+            }
+            MapTemplate.Values map = new MapTemplate.Values();
+            map.src = imgSrc != null ? imgSrc : "";
+            map.name = prefix.substring(0, prefix.length() - 1);
+            EditPipeline<PlainArea> pipeline = new EditPipeline<>(session);
+            pipeline.setIndexes(searchIndex, areaIndex);
+            pipeline.setPreviewServer(previewServer);
+            // seeded for every file, so a file gets the same edits in each pass whatever ran before it
+            Random random = new Random(CorpusGenerator.DEFAULT_SEED);
+            measure(prefix + "edit", edits, repeats, () -> {
+                for (int i = 0; i < edits; i++) {
+                    int index = random.nextInt(areas.size());
+                    PlainArea area = areas.get(index);
+                    // edits are undone by the next edit of the same kind, so repeated runs work on the same map
+                    switch (i % 3) {
+                        case 0:
+                            String title = area.getTitle();
+                            area.setTitle(title.endsWith(" *") ? title.substring(0, title.length() - 2) : title + " *");
+                            break;
+                        case 1:
+                            String content = area.getDataContent();
+                            area.setDataContent(content.endsWith("<br>*") ? content.substring(0, content.length() - 5) : content + "<br>*");
+                            break;
+                        default:
+                            double d = area.getX() > 0 && random.nextBoolean() ? -1 : 1;
+                            area.setX(area.getX() + d);
+                            area.setY(Math.max(0, area.getY() + d));
+                    }
+                    pipeline.areaEdited(1, areaIds[index], area);
+                    if (session.needsCompaction()) {
+                        session.snapshot(new SessionStore.State(new LinkedHashMap<>(), Collections.singletonList(
+                                new SessionStore.DocumentState(1, new LinkedHashMap<>(), CompactMap.of(map.src, areas), areaIds)), 0));
+                    }
+                    pipeline.search("gate");
+                    pipeline.output(areas, TemplateEmitter.BOOTSTRAP.getName(), map, new int[0]);
+                }
+            });
+        } finally {
+            previewServer.stop();
+            session.close();
+            for (Path path : new Path[]{snapshotPath, journalPath, snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp"), directory}) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // Keeps the best of the runs, the slower ones are mostly GC and JIT noise. Fast steps run until MIN_TIME has passed,
+    // so the small maps are measured with compiled code as well.
+    private void measure(String key, int items, int repeats, Step step) throws Exception {
+        // garbage of the previous step shouldn't be collected on this one's clock
+        System.gc();
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int i = 0; i < MAX_RUNS && (i < repeats || total < MIN_TIME); i++) {
+            long start = System.nanoTime();
+            step.run();
+            long time = System.nanoTime() - start;
+            best = Math.min(best, time);
+            total += time;
+        }
+        record(key, items * 1e9 / Math.max(1, best));
+    }
+
+    // Running a file again keeps the better value of both passes.
+    private void record(String key, double value) {
+        results.merge(key, value, isLowerBetter(key) ? Math::min : Math::max);
+    }
+
+    private static int[] imageSize(Path imagePath) throws IOException {
+        return Files.isRegularFile(imagePath) ? MapValidator.readImageSize(imagePath) : null;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static boolean isLowerBetter(String key) {
+        return key.endsWith("." + HEAP);
+    }
+
+    // Returns the regressions, tolerance is the allowed relative change, e.g. 0.25.
+    public static List<String> compare(Map<String, Double> results, Map<String, Double> baseline, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : results.entrySet()) {
+            Double expected = baseline.get(entry.getKey());
+            if (expected == null || expected <= 0) {
+                continue;
+            }
+            double value = entry.getValue();
+            boolean regressed = isLowerBetter(entry.getKey()) ? value > expected * (1 + tolerance)
+                    : value < expected * (1 - tolerance);
+            if (regressed) {
+                regressions.add(entry.getKey() + ": " + format(value) + " against a baseline of " + format(expected));
+            }
+        }
+        return regressions;
+    }
+
+    public static Map<String, Double> readBaseline(Path path) throws IOException {
+        Map<String, Double> baseline = new TreeMap<>();
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (NoSuchFileException ex) {
+            return baseline;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            try {
+                baseline.put(key, Double.parseDouble(properties.getProperty(key)));
+            } catch (NumberFormatException ex) {
+                System.err.println("Ignoring baseline entry " + key);
+            }
+        }
+        return baseline;
+    }
+
+    // Sorted plain key=value lines, so a new baseline gives a readable diff.
+    public static void writeBaseline(Path path, Map<String, Double> baseline) throws IOException {
+        StringBuilder sb = new StringBuilder("# ImageMapper performance baseline, areas per second and heap bytes per area\n");
+        for (Map.Entry<String, Double> entry : new TreeMap<>(baseline).entrySet()) {
+            sb.append(entry.getKey()).append('=').append(String.format(Locale.ROOT, "%.1f", entry.getValue())).append('\n');
+        }
+        Files.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String format(double value) {
+        return String.format("%,.0f", value);
+    }
+}
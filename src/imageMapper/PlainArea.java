@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+// An area as plain values, for everything that works on maps without the editor.
+public class PlainArea implements MapArea {
+    private double x;
+    private double y;
+    private double width;
+    private double height;
+    private String title;
+    private String alt;
+    private String dataContent;
+    private String onClick;
+
+    public PlainArea(double x, double y, double width, double height, String title, String alt, String dataContent, String onClick) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.title = AttributePool.intern(title);
+        this.alt = AttributePool.intern(alt);
+        this.dataContent = AttributePool.intern(dataContent);
+        this.onClick = AttributePool.intern(onClick);
+    }
+
+    @Override
+    public double getX() {
+        return x;
+    }
+
+    public void setX(double x) {
+        this.x = x;
+    }
+
+    @Override
+    public double getY() {
+        return y;
+    }
+
+    public void setY(double y) {
+        this.y = y;
+    }
+
+    @Override
+    public double getWidth() {
+        return width;
+    }
+
+    public void setWidth(double width) {
+        this.width = width;
+    }
+
+    @Override
+    public double getHeight() {
+        return height;
+    }
+
+    public void setHeight(double height) {
+        this.height = height;
+    }
+
+    @Override
+    public String getTitle() {
+        return title != null ? title : "";
+    }
+
+    @Override
+    public void setTitle(String title) {
+        this.title = AttributePool.intern(title);
+    }
+
+    @Override
+    public String getAlt() {
+        return alt != null ? alt : "";
+    }
+
+    @Override
+    public void setAlt(String alt) {
+        this.alt = AttributePool.intern(alt);
+    }
+
+    @Override
+    public String getDataContent() {
+        return dataContent != null ? dataContent : "";
+    }
+
+    @Override
+    public void setDataContent(String dataContent) {
+        this.dataContent = AttributePool.intern(dataContent);
+    }
+
+    @Override
+    public String getOnClick() {
+        return onClick != null ? onClick : "";
+    }
+
+    @Override
+    public void setOnClick(String onClick) {
+        this.onClick = AttributePool.intern(onClick);
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Serves the current image and map on localhost and pushes changed areas to the open pages as Server-Sent Events.
+public class PreviewServer {
+    private static final String PAGE = "<!DOCTYPE html>\n"
+            + "<html>\n<head>\n<meta charset=\"utf-8\">\n<title>ImageMapper preview</title>\n"
+            + "<link rel=\"stylesheet\" href=\"https://maxcdn.bootstrapcdn.com/bootstrap/3.3.7/css/bootstrap.min.css\">\n"
+            + "<script src=\"https://code.jquery.com/jquery-1.12.4.min.js\"></script>\n"
+            + "<script src=\"https://maxcdn.bootstrapcdn.com/bootstrap/3.3.7/js/bootstrap.min.js\"></script>\n"
+            + "</head>\n<body>\n"
+            + "<img id=\"image\" src=\"/image\" usemap=\"#preview\">\n<map name=\"preview\" id=\"map\"></map>\n"
+            + "<script>\n"
+            + "var map = document.getElementById('map');\n"
+            + "function find(id) { return map.querySelector('[data-id=\"' + id + '\"]'); }\n"
+            + "function drop(el) { if (el) { $(el).popover('destroy'); map.removeChild(el); } }\n"
+            + "var events = new EventSource('/events');\n"
+            + "events.addEventListener('reset', function () { while (map.firstChild) { drop(map.firstChild); } });\n"
+            + "events.addEventListener('area', function (e) {\n"
+            + "  var area = JSON.parse(e.data);\n"
+            + "  var holder = document.createElement('div');\n"
+            + "  holder.innerHTML = area.html;\n"
+            + "  var el = holder.firstElementChild;\n"
+            + "  var old = find(area.id);\n"
+            + "  if (old) { $(old).popover('destroy'); map.replaceChild(el, old); } else { map.appendChild(el); }\n"
+            + "  $(el).popover({html: true, container: 'body'});\n"
+            + "});\n"
+            + "events.addEventListener('remove', function (e) { drop(find(e.data)); });\n"
+            + "events.addEventListener('image', function (e) { document.getElementById('image').src = '/image?v=' + e.data; });\n"
+            + "</script>\n</body>\n</html>\n";
+
+    private final HttpServer server;
+    private final ExecutorService sender;
+    private final List<OutputStream> clients = new CopyOnWriteArrayList<>();
+    // id -> rendered area, the state a newly connected page starts with
+    private final Map<Integer, String> rendered = new TreeMap<>();
+    // only used on the publishing thread
+    private final Map<MapArea, Published> published = new IdentityHashMap<>();
+    private final MapTemplate.Values values = new MapTemplate.Values();
+    private final StringBuilder buffer = new StringBuilder();
+    private volatile Path imagePath;
+    private int nextId = 1;
+    private int imageVersion = 0;
+
+    private static class Published {
+        final int id;
+        long x;
+        long y;
+        long x2;
+        long y2;
+        String title;
+        String alt;
+        String dataContent;
+        String onClick;
+        boolean seen;
+
+        Published(int id) {
+            this.id = id;
+        }
+
+        // setters replace the strings, so comparing references is enough to notice an edit
+        boolean update(MapArea area) {
+            long newX = Math.round(area.getX());
+            long newY = Math.round(area.getY());
+            long newX2 = Math.round(area.getX() + area.getWidth());
+            long newY2 = Math.round(area.getY() + area.getHeight());
+            boolean changed = newX != x || newY != y || newX2 != x2 || newY2 != y2 || title != area.getTitle()
+                    || alt != area.getAlt() || dataContent != area.getDataContent() || onClick != area.getOnClick();
+            x = newX;
+            y = newY;
+            x2 = newX2;
+            y2 = newY2;
+            title = area.getTitle();
+            alt = area.getAlt();
+            dataContent = area.getDataContent();
+            onClick = area.getOnClick();
+            return changed;
+        }
+    }
+
+    private PreviewServer(HttpServer server) {
+        this.server = server;
+        this.sender = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "PreviewServer events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/", this::handlePage);
+        server.createContext("/image", this::handleImage);
+        server.createContext("/events", this::handleEvents);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "PreviewServer");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public static PreviewServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        PreviewServer previewServer = new PreviewServer(server);
+        server.start();
+        return previewServer;
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    public void stop() {
+        server.stop(0);
+        sender.shutdownNow();
+        for (OutputStream client : clients) {
+            try {
+                client.close();
+            } catch (IOException ex) {
+                // already gone
+            }
+        }
+    }
+
+    public void setImage(Path imagePath) {
+        this.imagePath = imagePath;
+        int version = ++imageVersion;
+        broadcast("event: image\ndata: " + version + "\n\n");
+    }
+
+    // Sends the areas that were added, edited or removed since the last call. Must be called from one thread.
+    public void publish(List<? extends MapArea> areas) {
+        StringBuilder events = new StringBuilder();
+        for (Published p : published.values()) {
+            p.seen = false;
+        }
+        for (MapArea area : areas) {
+            Published p = published.get(area);
+            if (p == null) {
+                p = new Published(nextId++);
+                published.put(area, p);
+            }
+            p.seen = true;
+            if (p.update(area)) {
+                String html = render(area, p.id);
+                synchronized (rendered) {
+                    rendered.put(p.id, html);
+                }
+                appendAreaEvent(events, p.id, html);
+            }
+        }
+        Iterator<Published> it = published.values().iterator();
+        while (it.hasNext()) {
+            Published p = it.next();
+            if (!p.seen) {
+                it.remove();
+                synchronized (rendered) {
+                    rendered.remove(p.id);
+                }
+                events.append("event: remove\ndata: ").append(p.id).append("\n\n");
+            }
+        }
+        if (events.length() > 0) {
+            broadcast(events.toString());
+        }
+    }
+
+    private String render(MapArea area, int id) {
+        buffer.setLength(0);
+        values.setArea(area, id).extra = "data-id=\"" + id + "\" ";
+        TemplateEmitter.BOOTSTRAP.getAreaTemplate().render(buffer, values);
+        return buffer.toString().trim();
+    }
+
+    private static void appendAreaEvent(StringBuilder events, int id, String html) {
+        StringBuilder json = new StringBuilder("{\"id\":").append(id).append(",\"html\":");
+        CompactMap.appendJsonString(json, html);
+        events.append("event: area\ndata: ").append(json).append("}\n\n");
+    }
+
+    private void broadcast(String events) {
+        byte[] bytes = events.getBytes(StandardCharsets.UTF_8);
+        sender.execute(() -> {
+            for (OutputStream client : clients) {
+                try {
+                    client.write(bytes);
+                    client.flush();
+                } catch (IOException ex) {
+                    clients.remove(client);
+                }
+            }
+        });
+    }
+
+    private void handlePage(HttpExchange exchange) throws IOException {
+        if (!"/".equals(exchange.getRequestURI().getPath())) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        byte[] page = PAGE.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(200, page.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(page);
+        }
+    }
+
+    private void handleImage(HttpExchange exchange) throws IOException {
+        Path path = imagePath;
+        if (path == null || !Files.isRegularFile(path)) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        String contentType = Files.probeContentType(path);
+        exchange.getResponseHeaders().set("Content-Type", contentType != null ? contentType : "application/octet-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, Files.size(path));
+        try (OutputStream out = exchange.getResponseBody()) {
+            Files.copy(path, out);
+        }
+    }
+
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        // the full map is only sent once per page, later events carry the changed areas
+        sender.execute(() -> {
+            StringBuilder events = new StringBuilder("event: reset\ndata: \n\n");
+            List<Map.Entry<Integer, String>> snapshot;
+            synchronized (rendered) {
+                snapshot = new ArrayList<>(rendered.entrySet());
+            }
+            for (Map.Entry<Integer, String> entry : snapshot) {
+                appendAreaEvent(events, entry.getKey(), entry.getValue());
+            }
+            try {
+                out.write(events.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                clients.add(out);
+            } catch (IOException ex) {
+                exchange.close();
+            }
+        });
+    }
+}
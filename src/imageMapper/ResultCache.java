@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// On-disk cache of generated output, keyed by a hash of the input file, the tool version and every option the output
+// depends on. Every entry is one file holding the deflated output.
+public class ResultCache {
+    private static final int MAGIC = 0x494D4352; // "IMCR"
+    private static final int FORMAT = 2;
+    // deflate doesn't compress better than about 1:1032
+    private static final long MAX_RATIO = 1100;
+
+    private final Path directory;
+
+    public ResultCache(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    public static String key(byte[] input, String toolVersion, String options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((toolVersion + "\n" + CompactMap.VERSION + "\n" + FORMAT + "\n" + options + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            digest.update(input);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // Returns null if there is no entry or it can't be read.
+    public String get(String key) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path(key)));
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+                return null;
+            }
+            int outputLength = buffer.getInt();
+            if (outputLength < 0 || outputLength > buffer.remaining() * MAX_RATIO) {
+                return null;
+            }
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(buffer.array(), buffer.position(), buffer.remaining());
+                byte[] output = new byte[outputLength];
+                int read = 0;
+                while (read < outputLength && !inflater.finished()) {
+                    int n = inflater.inflate(output, read, outputLength - read);
+                    if (n == 0 && inflater.needsInput()) {
+                        return null;
+                    }
+                    read += n;
+                }
+                return read == outputLength ? new String(output, StandardCharsets.UTF_8) : null;
+            } finally {
+                inflater.end();
+            }
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException | RuntimeException | DataFormatException ex) {
+            System.err.println("Ignoring unreadable cache entry " + key + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    public void put(String key, String output) throws IOException {
+        byte[] outputBytes = output.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(outputBytes.length / 4 + 32);
+        CompactMap.writeInt(out, MAGIC);
+        CompactMap.writeInt(out, FORMAT);
+        CompactMap.writeInt(out, outputBytes.length);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(outputBytes);
+            deflater.finish();
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        // write to a temporary file first, so parallel runs never see half written entries
+        Path target = path(key);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), key, ".tmp");
+        try {
+            Files.write(temp, out.toByteArray());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".bin");
+    }
+}
@@ -0,0 +1,537 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+// Editor session on disk: a binary snapshot of the settings and the open maps, plus a journal of the edits made since.
+// Edits are encoded on the calling thread and appended by a background thread. The journal carries the generation of
+// its snapshot, so a journal left over from before the last snapshot is never replayed on top of it. The journal is
+// forced to disk whenever the writer has caught up, so a burst of edits costs one sync. Records refer to documents and
+// areas by their ids, which don't shift when other areas are added or removed.
+public class SessionStore implements Closeable {
+    private static final int SNAPSHOT_MAGIC = 0x494D5353; // "IMSS"
+    private static final int JOURNAL_MAGIC = 0x494D534A; // "IMSJ"
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final long COMPACTION_SIZE = 4 * 1024 * 1024;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SETTINGS = 3;
+    private static final byte ACTIVE = 4;
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final ExecutorService writer;
+    // last written settings by target, 0 is the workspace and every other target the id of a document
+    private final Map<Integer, Map<String, String>> journaledSettings = new HashMap<>();
+    private FileChannel journal;
+    private int generation;
+    private volatile long journalSize;
+    private final AtomicInteger pendingRecords = new AtomicInteger();
+
+    public static class DocumentState {
+        private final int id;
+        private final Map<String, String> settings;
+        private CompactMap map;
+        // the ids of the areas of the map, in the same order
+        private int[] areaIds;
+        // only while the journal is replayed, by area id
+        private Map<Integer, PlainArea> replayed;
+
+        public DocumentState(int id, Map<String, String> settings, CompactMap map, int[] areaIds) {
+            if (areaIds.length != map.size()) {
+                throw new IllegalArgumentException(areaIds.length + " area ids for " + map.size() + " areas.");
+            }
+            this.id = id;
+            this.settings = settings;
+            this.map = map;
+            this.areaIds = areaIds;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Map<String, String> getSettings() {
+            return settings;
+        }
+
+        public CompactMap getMap() {
+            return map;
+        }
+
+        public int[] getAreaIds() {
+            return areaIds;
+        }
+
+        private Map<Integer, PlainArea> replayed() {
+            if (replayed == null) {
+                replayed = new LinkedHashMap<>();
+                List<PlainArea> areas = map.toAreas(PlainArea::new);
+                for (int i = 0; i < areas.size(); i++) {
+                    replayed.put(areaIds[i], areas.get(i));
+                }
+            }
+            return replayed;
+        }
+    }
+
+    public static class State {
+        private final Map<String, String> settings;
+        private final List<DocumentState> documents;
+        private int active;
+
+        public State(Map<String, String> settings, List<DocumentState> documents, int active) {
+            this.settings = settings;
+            this.documents = documents;
+            this.active = active;
+        }
+
+        public Map<String, String> getSettings() {
+            return settings;
+        }
+
+        public List<DocumentState> getDocuments() {
+            return documents;
+        }
+
+        public int getActive() {
+            return active;
+        }
+    }
+
+    public SessionStore(Path snapshotPath, Path journalPath) {
+        this.snapshotPath = snapshotPath;
+        this.journalPath = journalPath;
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "SessionStore");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Reads the snapshot and replays the journal. Returns null if there is no readable snapshot yet. Must be called
+    // once, before any edit is recorded.
+    public State load() throws IOException {
+        State state = null;
+        try {
+            state = readSnapshot();
+        } catch (IOException | IllegalArgumentException | BufferUnderflowException ex) {
+            System.err.println("Ignoring unreadable session " + snapshotPath + ": " + ex.getMessage());
+        }
+        long validEnd = state != null ? replayJournal(state) : -1;
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (validEnd < 0) {
+            resetJournal();
+        } else {
+            // a torn record at the end is cut off, later records are appended after the last complete one
+            journal.truncate(validEnd);
+            journal.position(validEnd);
+            journalSize = validEnd;
+        }
+        if (state != null) {
+            for (DocumentState document : state.getDocuments()) {
+                if (document.replayed != null) {
+                    document.map = CompactMap.of(document.map.getImgSrc(), new ArrayList<>(document.replayed.values()));
+                    document.areaIds = new int[document.replayed.size()];
+                    int i = 0;
+                    for (int areaId : document.replayed.keySet()) {
+                        document.areaIds[i++] = areaId;
+                    }
+                    document.replayed = null;
+                }
+            }
+            rememberSettings(state);
+        }
+        return state;
+    }
+
+    private State readSnapshot() throws IOException {
+        if (!Files.isRegularFile(snapshotPath)) {
+            return null;
+        }
+        // read into memory rather than mapped, a mapping would keep the file from being replaced on Windows
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(snapshotPath));
+        if (buffer.getInt() != SNAPSHOT_MAGIC) {
+            throw new IllegalArgumentException("Not a session file.");
+        }
+        int format = buffer.getInt();
+        if (format != FORMAT) {
+            throw new IllegalArgumentException("Unsupported session format " + format + ".");
+        }
+        generation = buffer.getInt();
+        Map<String, String> settings = readSettings(buffer);
+        List<DocumentState> documents = new ArrayList<>();
+        int count = CompactMap.readCount(buffer, 1);
+        int active = CompactMap.readVarInt(buffer);
+        for (int i = 0; i < count; i++) {
+            int id = CompactMap.readVarInt(buffer);
+            Map<String, String> documentSettings = readSettings(buffer);
+            int length = buffer.getInt();
+            ByteBuffer mapBuffer = buffer.slice();
+            mapBuffer.limit(length);
+            CompactMap map = CompactMap.fromBinary(mapBuffer);
+            buffer.position(buffer.position() + length);
+            int[] areaIds = new int[CompactMap.readCount(buffer, 1)];
+            for (int a = 0; a < areaIds.length; a++) {
+                areaIds[a] = CompactMap.readVarInt(buffer);
+            }
+            documents.add(new DocumentState(id, documentSettings, map, areaIds));
+        }
+        return new State(settings, documents, active);
+    }
+
+    // Returns the end of the last complete record, or -1 if the journal doesn't belong to the snapshot.
+    private long replayJournal(State state) {
+        if (!Files.isRegularFile(journalPath)) {
+            return -1;
+        }
+        // read into memory rather than mapped, the file is truncated and appended to right after
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(journalPath));
+        } catch (IOException ex) {
+            return -1;
+        }
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != JOURNAL_MAGIC || buffer.getInt() != FORMAT
+                || buffer.getInt() != generation) {
+            return -1;
+        }
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length <= 0 || length + 4 > buffer.remaining()) {
+                return start;
+            }
+            byte[] record = new byte[length];
+            buffer.get(record);
+            crc.reset();
+            crc.update(record, 0, record.length);
+            if (buffer.getInt() != (int) crc.getValue()) {
+                return start;
+            }
+            try {
+                apply(ByteBuffer.wrap(record), state);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException ex) {
+                System.err.println("Stopping session replay at an invalid record: " + ex.getMessage());
+                return start;
+            }
+        }
+        return buffer.position();
+    }
+
+    // Records of documents which are no longer in the snapshot are skipped.
+    private static void apply(ByteBuffer record, State state) {
+        byte type = record.get();
+        if (type == PUT) {
+            DocumentState document = document(state, CompactMap.readVarInt(record));
+            int areaId = CompactMap.readVarInt(record);
+            int x1 = CompactMap.readVarInt(record);
+            int y1 = CompactMap.readVarInt(record);
+            int x2 = CompactMap.readVarInt(record);
+            int y2 = CompactMap.readVarInt(record);
+            PlainArea area = new PlainArea(x1, y1, x2 - x1, y2 - y1, readString(record), readString(record),
+                    readString(record), readString(record));
+            if (document != null) {
+                // a new id is added at the end, like a new area in the editor
+                document.replayed().put(areaId, area);
+            }
+        } else if (type == REMOVE) {
+            DocumentState document = document(state, CompactMap.readVarInt(record));
+            int areaId = CompactMap.readVarInt(record);
+            if (document != null) {
+                document.replayed().remove(areaId);
+            }
+        } else if (type == SETTINGS) {
+            int target = CompactMap.readVarInt(record);
+            Map<String, String> settings = readSettings(record);
+            DocumentState document = target != 0 ? document(state, target) : null;
+            if (target == 0) {
+                state.getSettings().putAll(settings);
+            } else if (document != null) {
+                document.getSettings().putAll(settings);
+            }
+        } else if (type == ACTIVE) {
+            DocumentState document = document(state, CompactMap.readVarInt(record));
+            if (document != null) {
+                state.active = state.getDocuments().indexOf(document);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown record type " + type + ".");
+        }
+    }
+
+    private static DocumentState document(State state, int id) {
+        for (DocumentState document : state.getDocuments()) {
+            if (document.getId() == id) {
+                return document;
+            }
+        }
+        return null;
+    }
+
+    // Records an area of a document, which is either replaced or, with a new id, added at the end.
+    public void put(int document, int areaId, MapArea area) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(PUT);
+        CompactMap.writeVarInt(out, document);
+        CompactMap.writeVarInt(out, areaId);
+        CompactMap.writeVarInt(out, (int) Math.round(area.getX()));
+        CompactMap.writeVarInt(out, (int) Math.round(area.getY()));
+        CompactMap.writeVarInt(out, (int) Math.round(area.getX() + area.getWidth()));
+        CompactMap.writeVarInt(out, (int) Math.round(area.getY() + area.getHeight()));
+        writeString(out, area.getTitle());
+        writeString(out, area.getAlt());
+        writeString(out, area.getDataContent());
+        writeString(out, area.getOnClick());
+        append(out.toByteArray());
+    }
+
+    public void remove(int document, int areaId) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8);
+        out.write(REMOVE);
+        CompactMap.writeVarInt(out, document);
+        CompactMap.writeVarInt(out, areaId);
+        append(out.toByteArray());
+    }
+
+    public void active(int document) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8);
+        out.write(ACTIVE);
+        CompactMap.writeVarInt(out, document);
+        append(out.toByteArray());
+    }
+
+    public void settings(Map<String, String> settings) {
+        settings(0, settings);
+    }
+
+    // Document ids start at 1, target 0 is the workspace.
+    public void documentSettings(int document, Map<String, String> settings) {
+        settings(document, settings);
+    }
+
+    // Only records the settings which changed since they were last written.
+    private void settings(int target, Map<String, String> settings) {
+        Map<String, String> journaled = journaledSettings.computeIfAbsent(target, t -> new HashMap<>());
+        Map<String, String> changed = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : settings.entrySet()) {
+            if (!entry.getValue().equals(journaled.get(entry.getKey()))) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!changed.isEmpty()) {
+            journaled.putAll(changed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(SETTINGS);
+            CompactMap.writeVarInt(out, target);
+            writeSettings(out, changed);
+            append(out.toByteArray());
+        }
+    }
+
+    private void rememberSettings(State state) {
+        journaledSettings.clear();
+        journaledSettings.put(0, new HashMap<>(state.getSettings()));
+        for (DocumentState document : state.getDocuments()) {
+            journaledSettings.put(document.getId(), new HashMap<>(document.getSettings()));
+        }
+    }
+
+    public boolean needsCompaction() {
+        return journalSize > COMPACTION_SIZE;
+    }
+
+    // Replaces snapshot and journal with the given state, for changes to a whole map or the list of documents and to
+    // keep the journal short.
+    public void snapshot(State state) {
+        rememberSettings(state);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        CompactMap.writeInt(out, SNAPSHOT_MAGIC);
+        CompactMap.writeInt(out, FORMAT);
+        // generation, filled in by the writer thread
+        CompactMap.writeInt(out, 0);
+        writeSettings(out, state.getSettings());
+        CompactMap.writeVarInt(out, state.getDocuments().size());
+        CompactMap.writeVarInt(out, state.getActive());
+        for (DocumentState document : state.getDocuments()) {
+            CompactMap.writeVarInt(out, document.getId());
+            writeSettings(out, document.getSettings());
+            byte[] mapBytes = document.getMap().toBinary();
+            CompactMap.writeInt(out, mapBytes.length);
+            out.write(mapBytes, 0, mapBytes.length);
+            CompactMap.writeVarInt(out, document.getAreaIds().length);
+            for (int areaId : document.getAreaIds()) {
+                CompactMap.writeVarInt(out, areaId);
+            }
+        }
+        byte[] snapshot = out.toByteArray();
+        submit(() -> {
+            try {
+                generation++;
+                ByteBuffer.wrap(snapshot, 8, 4).putInt(generation);
+                Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+                // on disk before it replaces the old snapshot, the move must not expose an empty file after a crash
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+                Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                resetJournal();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+    }
+
+    // Writes a final snapshot and waits until everything is on disk.
+    public void close(State state) {
+        snapshot(state);
+        close();
+    }
+
+    @Override
+    public void close() {
+        submit(() -> {
+            try {
+                if (journal != null) {
+                    journal.force(false);
+                    journal.close();
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void append(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        ByteBuffer buffer = ByteBuffer.allocate(record.length + 8);
+        buffer.putInt(record.length).put(record).putInt((int) crc.getValue());
+        buffer.flip();
+        pendingRecords.incrementAndGet();
+        submit(() -> {
+            boolean last = pendingRecords.decrementAndGet() == 0;
+            if (journal == null) {
+                return;
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    journal.write(buffer);
+                }
+                journalSize = journal.position();
+                if (last) {
+                    journal.force(false);
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+    }
+
+    // Writes after close are dropped, e.g. from a file watcher reload that was already queued on the FX thread.
+    private void submit(Runnable task) {
+        if (writer.isShutdown()) {
+            return;
+        }
+        try {
+            writer.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // closed in the meantime
+        }
+    }
+
+    private void resetJournal() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        journal.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC).putInt(FORMAT).putInt(generation);
+        header.flip();
+        journal.position(0);
+        while (header.hasRemaining()) {
+            journal.write(header);
+        }
+        journal.force(true);
+        journalSize = HEADER_SIZE;
+    }
+
+    private static void writeSettings(ByteArrayOutputStream out, Map<String, String> settings) {
+        CompactMap.writeVarInt(out, settings.size());
+        for (Map.Entry<String, String> entry : settings.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readSettings(ByteBuffer buffer) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        int count = CompactMap.readVarInt(buffer);
+        for (int i = 0; i < count; i++) {
+            settings.put(readString(buffer), readString(buffer));
+        }
+        return settings;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        CompactMap.writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return CompactMap.readUtf8(buffer, CompactMap.readVarInt(buffer));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bootstrap popover map which writes every data-content used by more than one area only once, as a <template> after
+// the areas. The areas reference it with data-content-ref and a small script copies it back before the popovers start.
+// The template holds the content as escaped text, so the script gets back exactly the attribute value and not the
+// browser's serialization of it.
+public class SharedContentEmitter extends TemplateEmitter {
+    private static final String SCRIPT = "<script>\n"
+            + "[].forEach.call(document.querySelectorAll('[data-content-ref]'), function (area) {\n"
+            + "    area.setAttribute('data-content', document.getElementById(area.getAttribute('data-content-ref')).content.textContent);\n"
+            + "});\n"
+            + "</script>\n";
+
+    public SharedContentEmitter(String name) {
+        super(name, "",
+                "<area shape=\"rect\" coords=\"{coords}\" {extra}alt=\"{alt}\" data-toggle=\"popover\" data-trigger=\"hover\" "
+                        + "{?title}title=\"{title}\" {/title}{?onclick}onclick=\"{onclick}\" {/onclick}"
+                        + "{?content}data-content=\"{content}\" {/content}/>\n",
+                "");
+    }
+
+    @Override
+    public void emit(List<? extends MapArea> areas, MapTemplate.Values map, StringBuilder out) {
+        Map<String, Integer> uses = new HashMap<>();
+        for (MapArea area : areas) {
+            if (!area.getDataContent().isEmpty()) {
+                uses.merge(area.getDataContent(), 1, Integer::sum);
+            }
+        }
+        String prefix = (map.name.isEmpty() ? "" : HtmlWriter.escapeHtmlString(map.name) + "-") + "content-";
+        // ids in order of first use, so the output is stable
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> shared = new ArrayList<>();
+        StringBuilder ref = new StringBuilder();
+        int index = 0;
+        for (MapArea area : areas) {
+            map.setArea(area, index++);
+            if (uses.getOrDefault(area.getDataContent(), 0) > 1) {
+                Integer id = ids.get(area.getDataContent());
+                if (id == null) {
+                    id = shared.size() + 1;
+                    ids.put(area.getDataContent(), id);
+                    shared.add(area.getDataContent());
+                }
+                ref.setLength(0);
+                ref.append("data-content-ref=\"").append(prefix).append(id).append("\" ");
+                map.extra = ref;
+                map.content = "";
+            }
+            getAreaTemplate().render(out, map);
+        }
+        if (!shared.isEmpty()) {
+            for (int i = 0; i < shared.size(); i++) {
+                out.append("<template id=\"").append(prefix).append(i + 1).append("\">")
+                        .append(HtmlWriter.escapeText(shared.get(i))).append("</template>\n");
+            }
+            out.append(SCRIPT);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Uniform grid over item bounds. Every item is registered in all cells its bounds touch.
+public class SpatialIndex<T> {
+    private final double cellSize;
+    private final Map<Long, List<T>> cells = new HashMap<>();
+    private final Map<T, double[]> bounds = new HashMap<>();
+    private int minCellX = Integer.MAX_VALUE;
+    private int minCellY = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE;
+    private int maxCellY = Integer.MIN_VALUE;
+
+    public SpatialIndex(double cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive.");
+        }
+        this.cellSize = cellSize;
+    }
+
+    public void insert(T item, double minX, double minY, double maxX, double maxY) {
+        remove(item);
+        bounds.put(item, new double[]{minX, minY, maxX, maxY});
+        int x1 = cell(minX);
+        int y1 = cell(minY);
+        int x2 = cell(maxX);
+        int y2 = cell(maxY);
+        for (int cx = x1; cx <= x2; cx++) {
+            for (int cy = y1; cy <= y2; cy++) {
+                cells.computeIfAbsent(key(cx, cy), k -> new ArrayList<>(2)).add(item);
+            }
+        }
+        minCellX = Math.min(minCellX, x1);
+        minCellY = Math.min(minCellY, y1);
+        maxCellX = Math.max(maxCellX, x2);
+        maxCellY = Math.max(maxCellY, y2);
+    }
+
+    public boolean remove(T item) {
+        double[] b = bounds.remove(item);
+        if (b == null) {
+            return false;
+        }
+        for (int cx = cell(b[0]); cx <= cell(b[2]); cx++) {
+            for (int cy = cell(b[1]); cy <= cell(b[3]); cy++) {
+                List<T> items = cells.get(key(cx, cy));
+                if (items != null) {
+                    items.remove(item);
+                    if (items.isEmpty()) {
+                        cells.remove(key(cx, cy));
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        cells.clear();
+        bounds.clear();
+        minCellX = Integer.MAX_VALUE;
+        minCellY = Integer.MAX_VALUE;
+        maxCellX = Integer.MIN_VALUE;
+        maxCellY = Integer.MIN_VALUE;
+    }
+
+    public int size() {
+        return bounds.size();
+    }
+
+    public boolean contains(T item) {
+        return bounds.containsKey(item);
+    }
+
+    public List<T> query(double x, double y) {
+        List<T> result = new ArrayList<>();
+        List<T> items = cells.get(key(cell(x), cell(y)));
+        if (items != null) {
+            for (T item : items) {
+                double[] b = bounds.get(item);
+                if (x >= b[0] && x <= b[2] && y >= b[1] && y <= b[3]) {
+                    result.add(item);
+                }
+            }
+        }
+        return result;
+    }
+
+    public List<T> query(double minX, double minY, double maxX, double maxY) {
+        List<T> result = new ArrayList<>();
+        Map<T, Boolean> seen = new HashMap<>();
+        for (int cx = cell(minX); cx <= cell(maxX); cx++) {
+            for (int cy = cell(minY); cy <= cell(maxY); cy++) {
+                List<T> items = cells.get(key(cx, cy));
+                if (items == null) {
+                    continue;
+                }
+                for (T item : items) {
+                    double[] b = bounds.get(item);
+                    if (b[0] <= maxX && b[2] >= minX && b[1] <= maxY && b[3] >= minY && seen.put(item, true) == null) {
+                        result.add(item);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    // Item whose bounds center is closest to (x, y), or null if none is within maxDistance.
+    public T nearest(double x, double y, double maxDistance) {
+        if (bounds.isEmpty()) {
+            return null;
+        }
+        int cx = cell(x);
+        int cy = cell(y);
+        int maxRing = Math.max(Math.max(cx - minCellX, maxCellX - cx), Math.max(cy - minCellY, maxCellY - cy));
+        maxRing = Math.min(maxRing, (int) Math.ceil(maxDistance / cellSize) + 1);
+        T best = null;
+        double bestDistance = maxDistance;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int i = cx - ring; i <= cx + ring; i++) {
+                for (int j = cy - ring; j <= cy + ring; j++) {
+                    if (Math.abs(i - cx) != ring && Math.abs(j - cy) != ring) {
+                        continue;
+                    }
+                    List<T> items = cells.get(key(i, j));
+                    if (items == null) {
+                        continue;
+                    }
+                    for (T item : items) {
+                        double[] b = bounds.get(item);
+                        double distance = Math.hypot((b[0] + b[2]) / 2 - x, (b[1] + b[3]) / 2 - y);
+                        if (distance <= bestDistance && (best == null || distance < bestDistance)) {
+                            best = item;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+            // every closer center lies in a ring that was already searched
+            if (best != null && bestDistance <= ring * cellSize) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private int cell(double v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) ^ (cy & 0xFFFFFFFFL);
+    }
+}
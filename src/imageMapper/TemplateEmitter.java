@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Emitter made of a header, a per area and a footer template.
+public class TemplateEmitter implements MapEmitter {
+    public static final TemplateEmitter BOOTSTRAP = new TemplateEmitter("HTML", "",
+            "<area shape=\"rect\" coords=\"{coords}\" {extra}alt=\"{alt}\" data-toggle=\"popover\" data-trigger=\"hover\" "
+                    + "{?title}title=\"{title}\" {/title}{?onclick}onclick=\"{onclick}\" {/onclick}"
+                    + "data-content=\"{content}\" />\n",
+            "");
+    public static final TemplateEmitter PLAIN = new TemplateEmitter("Plain HTML", "",
+            "<area shape=\"rect\" coords=\"{coords}\" alt=\"{alt}\"{?title} title=\"{title}\"{/title}"
+                    + "{?onclick} onclick=\"{onclick}\"{/onclick} />\n",
+            "");
+    public static final TemplateEmitter MAP = new TemplateEmitter("HTML map",
+            "<img src=\"{src}\" usemap=\"#{name}\" />\n<map name=\"{name}\">\n",
+            "    <area shape=\"rect\" coords=\"{coords}\" alt=\"{alt}\"{?title} title=\"{title}\"{/title}"
+                    + "{?onclick} onclick=\"{onclick}\"{/onclick} />\n",
+            "</map>\n");
+    public static final TemplateEmitter SVG = new TemplateEmitter("SVG overlay",
+            "<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 {imageWidth} {imageHeight}\">\n"
+                    + "    <image href=\"{src|xml}\" width=\"{imageWidth}\" height=\"{imageHeight}\" />\n",
+            "    <rect x=\"{x}\" y=\"{y}\" width=\"{width}\" height=\"{height}\" fill=\"transparent\" "
+                    + "aria-label=\"{alt|xml}\" data-content=\"{content|xml}\"{?onclick} onclick=\"{onclick|xml}\"{/onclick}>"
+                    + "{?title}<title>{title|xml}</title>{/title}</rect>\n",
+            "</svg>\n");
+    public static final TemplateEmitter SHARED_CONTENT = new SharedContentEmitter("HTML, shared content");
+
+    private final String name;
+    private final MapTemplate header;
+    private final MapTemplate area;
+    private final MapTemplate footer;
+
+    public TemplateEmitter(String name, String header, String area, String footer) {
+        this.name = name;
+        this.header = MapTemplate.compile(header);
+        this.area = MapTemplate.compile(area);
+        this.footer = MapTemplate.compile(footer);
+    }
+
+    public static List<TemplateEmitter> builtIn() {
+        return Arrays.asList(BOOTSTRAP, PLAIN, MAP, SVG, SHARED_CONTENT);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public MapTemplate getAreaTemplate() {
+        return area;
+    }
+
+    @Override
+    public void emit(List<? extends MapArea> areas, MapTemplate.Values map, StringBuilder out) {
+        header.render(out, map);
+        int index = 0;
+        for (MapArea imageArea : areas) {
+            area.render(out, map.setArea(imageArea, index++));
+        }
+        footer.render(out, map);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Splits a map into a grid of tiles. Areas spanning several tiles are written into each of them, either clipped to the
+// tile or whole, and all coordinates are relative to the top left corner of their tile.
+public class TileExporter {
+    private final int tileWidth;
+    private final int tileHeight;
+    private final boolean clip;
+
+    public TileExporter(int tileWidth, int tileHeight, boolean clip) {
+        if (tileWidth <= 0 || tileHeight <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive.");
+        }
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.clip = clip;
+    }
+
+    // Tiles in row major order. The grid covers the image, or all areas if the image size is not known (0).
+    public CompactMap[] partition(CompactMap map, int imageWidth, int imageHeight) {
+        int columns = columns(map, imageWidth);
+        int rows = rows(map, imageHeight);
+
+        // area indexes per tile, collected in one pass before the tiles are built in parallel
+        int[][] members = new int[columns * rows][];
+        int[] counts = new int[columns * rows];
+        for (int i = 0; i < map.size(); i++) {
+            int lastColumn = Math.min(columns - 1, lastCell(map.getCoord(i, 2), tileWidth));
+            int lastRow = Math.min(rows - 1, lastCell(map.getCoord(i, 3), tileHeight));
+            for (int row = Math.max(0, map.getCoord(i, 1) / tileHeight); row <= lastRow; row++) {
+                for (int column = Math.max(0, map.getCoord(i, 0) / tileWidth); column <= lastColumn; column++) {
+                    int tile = row * columns + column;
+                    if (members[tile] == null) {
+                        members[tile] = new int[4];
+                    } else if (counts[tile] == members[tile].length) {
+                        members[tile] = Arrays.copyOf(members[tile], counts[tile] * 2);
+                    }
+                    members[tile][counts[tile]++] = i;
+                }
+            }
+        }
+
+        CompactMap[] tiles = new CompactMap[columns * rows];
+        IntStream.range(0, tiles.length).parallel().forEach(tile -> {
+            int left = (tile % columns) * tileWidth;
+            int top = (tile / columns) * tileHeight;
+            CompactMap.Builder builder = new CompactMap.Builder(map.getImgSrc(), counts[tile]);
+            for (int n = 0; n < counts[tile]; n++) {
+                int i = members[tile][n];
+                int x1 = map.getCoord(i, 0) - left;
+                int y1 = map.getCoord(i, 1) - top;
+                int x2 = map.getCoord(i, 2) - left;
+                int y2 = map.getCoord(i, 3) - top;
+                if (clip) {
+                    x1 = Math.max(x1, 0);
+                    y1 = Math.max(y1, 0);
+                    x2 = Math.min(x2, tileWidth);
+                    y2 = Math.min(y2, tileHeight);
+                }
+                builder.add(x1, y1, x2, y2, map.getString(i, CompactMap.TITLE), map.getString(i, CompactMap.ALT),
+                        map.getString(i, CompactMap.DATA_CONTENT), map.getString(i, CompactMap.ONCLICK));
+            }
+            tiles[tile] = builder.build();
+        });
+        return tiles;
+    }
+
+    // Writes <baseName>-<row>-<column>.json (or .imap) for every tile, empty tiles included, so every tile of the image
+    // has a map. Returns the number of files written.
+    public int export(CompactMap map, int imageWidth, int imageHeight, Path outDir, String baseName, boolean binary)
+            throws IOException {
+        int columns = columns(map, imageWidth);
+        CompactMap[] tiles = partition(map, imageWidth, imageHeight);
+        Files.createDirectories(outDir);
+        try {
+            IntStream.range(0, tiles.length).parallel().forEach(tile -> {
+                String name = baseName + "-" + (tile / columns) + "-" + (tile % columns) + (binary ? ".imap" : ".json");
+                try {
+                    Files.write(outDir.resolve(name), binary ? tiles[tile].toBinary()
+                            : tiles[tile].toJson().getBytes(StandardCharsets.UTF_8));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return tiles.length;
+    }
+
+    private int columns(CompactMap map, int imageWidth) {
+        return cells(imageWidth > 0 ? imageWidth : maxCoord(map, 2), tileWidth);
+    }
+
+    private int rows(CompactMap map, int imageHeight) {
+        return cells(imageHeight > 0 ? imageHeight : maxCoord(map, 3), tileHeight);
+    }
+
+    private static int cells(int length, int cellSize) {
+        return Math.max(1, (length + cellSize - 1) / cellSize);
+    }
+
+    // an area ending exactly on a tile border doesn't reach into the next tile
+    private static int lastCell(int end, int cellSize) {
+        return Math.max(0, end - 1) / cellSize;
+    }
+
+    private static int maxCoord(CompactMap map, int index) {
+        int max = 0;
+        for (int i = 0; i < map.size(); i++) {
+            max = Math.max(max, map.getCoord(i, index));
+        }
+        return max;
+    }
+}
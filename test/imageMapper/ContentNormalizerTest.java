@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.util.Random;
+
+// Checks the buttons against the replaceAll loops they replaced. Runs without a test framework:
+// java -cp <classes> imageMapper.ContentNormalizerTest
+public class ContentNormalizerTest {
+    private static final char[] ALPHABET = {' ', ' ', ' ', '\t', '\n', '\n', '\r', 'a', 'b', '<', '>', '/'};
+
+    public static void main(String[] args) {
+        buttonsMatchLoops();
+        normalizeAll();
+        System.out.println("ContentNormalizerTest passed");
+    }
+
+    private static void buttonsMatchLoops() {
+        Random random = new Random(31);
+        for (int n = 0; n < 200000; n++) {
+            char[] chars = new char[random.nextInt(24)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+            }
+            String s = new String(chars);
+            check(removeWhitespacesLoop(s).equals(ContentNormalizer.REMOVE_WHITESPACES.normalize(s)),
+                    "Remove whitespaces differs for " + escape(s));
+            check(removeLineBreaksLoop(s).equals(ContentNormalizer.REMOVE_LINE_BREAKS.normalize(s)),
+                    "Remove line breaks differs for " + escape(s));
+        }
+    }
+
+    private static void normalizeAll() {
+        checkAll("<b>Hello</b> <i>world</i>", "<b>Hello</b> <i>world</i>");
+        checkAll("Line one\r\nLine\t\ttwo", "Line one Line two");
+        checkAll(" \t<p>\n  Text  </p>\r\n<p>More</p> ", "<p>Text</p><p>More</p>");
+        checkAll("a <br> b", "a<br>b");
+        checkAll("a < b\n\n> c", "a < b > c");
+    }
+
+    // the loop of the "Remove whitespaces" button before the normalizer
+    private static String removeWhitespacesLoop(String s) {
+        while (s.contains("  ")) {
+            s = s.replaceAll(" {2}", " ").trim();
+        }
+        return s;
+    }
+
+    // the loop of the "Remove line breaks" button before the normalizer
+    private static String removeLineBreaksLoop(String s) {
+        while (s.contains("\n")) {
+            s = s.replaceAll(" \n", " ");
+            s = s.replaceAll("\n", " ");
+        }
+        return s;
+    }
+
+    private static void checkAll(String input, String expected) {
+        String actual = ContentNormalizer.ALL.normalize(input);
+        check(expected.equals(actual), "ALL gives " + escape(actual) + " for " + escape(input));
+    }
+
+    private static String escape(String s) {
+        return "\"" + s.replace("\t", "\\t").replace("\r", "\\r").replace("\n", "\\n") + "\"";
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 resclify
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package imageMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Replays the journal the way the editor writes it. Runs without a test framework:
+// java -cp <classes> imageMapper.SessionStoreTest
+public class SessionStoreTest {
+
+    public static void main(String[] args) throws Exception {
+        journalAfterFailedParse();
+        journalByIds();
+        System.out.println("SessionStoreTest passed");
+    }
+
+    // A failed parse leaves the document without areas. The edits after it are journaled against that empty map, so
+    // a reload must not replay them onto the areas of the snapshot before the parse.
+    private static void journalAfterFailedParse() throws Exception {
+        Path directory = Files.createTempDirectory("session");
+        Path snapshotPath = directory.resolve("test.session");
+        Path journalPath = directory.resolve("test.journal");
+
+        List<PlainArea> areas = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            areas.add(new PlainArea(10 + i * 60, 10, 50, 50, "Area " + i, "", "content " + i, ""));
+        }
+        SessionStore store = new SessionStore(snapshotPath, journalPath);
+        check(store.load() == null, "a new session has no state");
+        store.snapshot(state(areas));
+        store.put(1, 2, new PlainArea(70, 10, 50, 80, "Area 1", "", "edited", ""));
+
+        // the editor snapshots the empty document the failed parse left
+        store.snapshot(state(Collections.emptyList()));
+        PlainArea added = new PlainArea(1, 1, 50, 50, "", "", "", "");
+        store.put(1, 4, added);
+        // closed without a final snapshot, like after a crash, so the journal has to be replayed
+        store.close();
+
+        SessionStore reloaded = new SessionStore(snapshotPath, journalPath);
+        SessionStore.State state = reloaded.load();
+        reloaded.close();
+        List<PlainArea> restored = state.getDocuments().get(0).getMap().toAreas(PlainArea::new);
+        check(restored.size() == 1, "one area after the replay, got " + restored.size());
+        check(restored.get(0).getCoordsString().equals(added.getCoordsString()), "the added area is restored");
+        check("x".equals(state.getDocuments().get(0).getSettings().get("filePath")), "the document settings are restored");
+    }
+
+    // Removing an area doesn't shift the others, later records still find the areas they were written for.
+    private static void journalByIds() throws Exception {
+        Path directory = Files.createTempDirectory("session");
+        Path snapshotPath = directory.resolve("test.session");
+        Path journalPath = directory.resolve("test.journal");
+
+        List<PlainArea> areas = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            areas.add(new PlainArea(10 + i * 60, 10, 50, 50, "Area " + i, "", "", ""));
+        }
+        SessionStore store = new SessionStore(snapshotPath, journalPath);
+        store.load();
+        store.snapshot(state(areas));
+        store.remove(1, 2);
+        store.put(1, 4, new PlainArea(10, 100, 50, 50, "Added", "", "", ""));
+        store.put(1, 3, new PlainArea(130, 10, 50, 50, "Edited", "", "", ""));
+        // a document that was closed in the meantime
+        store.put(7, 1, new PlainArea(1, 1, 5, 5, "", "", "", ""));
+        store.close();
+
+        SessionStore reloaded = new SessionStore(snapshotPath, journalPath);
+        SessionStore.State state = reloaded.load();
+        reloaded.close();
+        SessionStore.DocumentState document = state.getDocuments().get(0);
+        List<PlainArea> restored = document.getMap().toAreas(PlainArea::new);
+        check(restored.size() == 3, "three areas after the replay, got " + restored.size());
+        check("Area 0".equals(restored.get(0).getTitle()), "the first area is unchanged");
+        check("Edited".equals(restored.get(1).getTitle()), "the third area is edited in place");
+        check("Added".equals(restored.get(2).getTitle()), "the new area is added at the end");
+        check(Arrays.equals(document.getAreaIds(), new int[]{1, 3, 4}), "the ids are restored with their areas");
+    }
+
+    private static SessionStore.State state(List<PlainArea> areas) {
+        LinkedHashMap<String, String> settings = new LinkedHashMap<>();
+        settings.put("filePath", "x");
+        int[] areaIds = new int[areas.size()];
+        for (int i = 0; i < areaIds.length; i++) {
+            areaIds[i] = i + 1;
+        }
+        List<SessionStore.DocumentState> documents = new ArrayList<>();
+        documents.add(new SessionStore.DocumentState(1, settings, CompactMap.of("x", areas), areaIds));
+        return new SessionStore.State(new LinkedHashMap<>(), documents, 0);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}